@@ -0,0 +1,80 @@
+package benchmarks;
+
+import concurrentChat.BlockList;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Coste de la comprobación de bloqueo en el hilo de aceptación.
+ * Compara el Set de IPs en texto anterior (getHostAddress() + contains)
+ * con el trie CIDR de BlockList, para una IP bloqueada y otra que no.
+ *
+ * Uso: java -jar target/benchmarks.jar BlockListBenchmark -prof gc
+ *
+ * @author sergi
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlockListBenchmark {
+
+    @Param({"10", "10000"})
+    public int bans;
+
+    private Set<String> legacy;
+    private BlockList trie;
+    private InetAddress blocked;
+    private InetAddress allowed;
+
+    @Setup
+    public void setup() throws UnknownHostException {
+        legacy = ConcurrentHashMap.newKeySet();
+        trie = new BlockList();
+        for (int i = 0; i < bans; i++) {
+            String ip = "10." + (i >>> 16 & 0xFF) + "." + (i >>> 8 & 0xFF) + "." + (i & 0xFF);
+            legacy.add(ip);
+            trie.block(ip);
+        }
+        trie.block("192.168.0.0/16");
+        legacy.add("192.168.7.7");
+        blocked = InetAddress.getByName("192.168.7.7");
+        allowed = InetAddress.getByName("172.16.4.2");
+    }
+
+    @Benchmark
+    public boolean legacySetBlocked() {
+        return legacy.contains(blocked.getHostAddress());
+    }
+
+    @Benchmark
+    public boolean legacySetAllowed() {
+        return legacy.contains(allowed.getHostAddress());
+    }
+
+    @Benchmark
+    public boolean trieBlocked() {
+        return trie.isBlocked(blocked);
+    }
+
+    @Benchmark
+    public boolean trieAllowed() {
+        return trie.isBlocked(allowed);
+    }
+}
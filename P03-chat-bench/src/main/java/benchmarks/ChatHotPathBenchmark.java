@@ -0,0 +1,127 @@
+package benchmarks;
+
+import Handlers.ClientHandler;
+import concurrentChat.BlockList;
+import concurrentChat.ServerConfig;
+import concurrentChat.ServerContext;
+import concurrentChat.UserRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Caminos calientes de ClientHandler con N clientes conectados en memoria
+ * (InMemoryConnection en lugar de sockets): difusión global, mensaje
+ * privado, filtro de /ignore y una línea de comando completa (parser +
+ * tabla + acción). Sirve de línea base para comparar cambios del motor.
+ *
+ * Uso: java -jar target/benchmarks.jar ChatHotPathBenchmark -prof gc
+ *
+ * @author sergi
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatHotPathBenchmark {
+
+    /**
+     * Servidor en memoria con 'clients' usuarios ya conectados.
+     */
+    @State(Scope.Thread)
+    public static class Chat {
+
+        @Param({"100", "1000", "10000"})
+        public int clients;
+
+        @Param({"64", "512"})
+        public int messageLength;
+
+        public final List<ClientHandler> handlers = new ArrayList<>();
+        public ClientHandler sender;
+        public String targetName;
+        public String message;
+        public String privateCommand;
+
+        @Setup(Level.Trial)
+        public void connect() {
+            Set<ClientHandler> connected = ConcurrentHashMap.newKeySet();
+            ServerContext context = new ServerContext(ServerConfig.fromArgs(new String[0]),
+                    connected, new UserRegistry(), new BlockList());
+            for (int i = 0; i < clients; i++) {
+                ClientHandler handler = new ClientHandler(new InMemoryConnection(64 * 1024), context);
+                handler.login("usuario" + i);
+                handlers.add(handler);
+            }
+            sender = handlers.get(0);
+            targetName = "usuario" + (clients / 2);
+            message = "x".repeat(messageLength);
+            privateCommand = "/w " + targetName + " " + message;
+        }
+    }
+
+    /**
+     * El mismo servidor, pero un porcentaje de los clientes ignora al remitente.
+     */
+    @State(Scope.Thread)
+    public static class IgnoringChat extends Chat {
+
+        @Param({"10", "50", "90"})
+        public int ignoringPercent;
+
+        @Setup(Level.Trial)
+        public void ignoreSender() {
+            int ignoring = clients * ignoringPercent / 100;
+            for (int i = 1; i <= ignoring && i < clients; i++) {
+                handlers.get(i).handleIgnoreUser("usuario0");
+            }
+        }
+    }
+
+    /**
+     * Difusión global a todos los clientes (lo que hace un mensaje normal).
+     */
+    @Benchmark
+    public void broadcastMessage(Chat chat) {
+        chat.sender.broadcastMessage(chat.message, null, chat.sender);
+    }
+
+    /**
+     * Difusión en la que parte de los destinatarios ignora al remitente.
+     */
+    @Benchmark
+    public void broadcastWithIgnores(IgnoringChat chat) {
+        chat.sender.broadcastMessage(chat.message, null, chat.sender);
+    }
+
+    /**
+     * Mensaje privado: búsqueda del destinatario y dos envíos.
+     */
+    @Benchmark
+    public void handlePrivateMessage(Chat chat) {
+        chat.sender.handlePrivateMessage(chat.targetName, chat.message);
+    }
+
+    /**
+     * La misma línea "/w ..." pasando por el parser y la tabla de comandos.
+     */
+    @Benchmark
+    public boolean handleLinePrivateCommand(Chat chat) {
+        return chat.sender.handleLine(chat.privateCommand);
+    }
+}
@@ -0,0 +1,95 @@
+package benchmarks;
+
+import Handlers.BuiltinCommands;
+import Handlers.CommandLine;
+import Handlers.CommandRegistry;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Coste por línea de reconocer un comando y sus argumentos.
+ * Compara la cadena if/else + String.split anterior con la tabla de
+ * comandos (CommandRegistry) y el análisis por índices (CommandLine).
+ *
+ * Uso: java -jar target/benchmarks.jar CommandParseBenchmark -prof gc
+ *
+ * @author sergi
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandParseBenchmark {
+
+    @Param({
+        "hola a todos, ¿qué tal va el día?",
+        "/w ana nos vemos a las cinco en la entrada",
+        "/changename nuevo_nombre",
+        "/unignore alguien",
+        "/desconocido algo"
+    })
+    public String line;
+
+    private CommandRegistry registry;
+    private CommandLine commandLine;
+
+    @Setup
+    public void setup() {
+        registry = new CommandRegistry();
+        BuiltinCommands.register(registry);
+        commandLine = new CommandLine();
+    }
+
+    /**
+     * Parser anterior de ClientHandler.run(): startsWith en cadena y split.
+     */
+    @Benchmark
+    public void legacyIfElseSplit(Blackhole bh) {
+        String inputMessage = line;
+        if (inputMessage.equalsIgnoreCase("/exit")) {
+            bh.consume(0);
+        } else if (inputMessage.startsWith("/changename ")) {
+            bh.consume(inputMessage.split(" ", 2));
+        } else if (inputMessage.startsWith("/w ")) {
+            bh.consume(inputMessage.split(" ", 3));
+        } else if (inputMessage.startsWith("/ignore ")) {
+            bh.consume(inputMessage.split(" ", 2));
+        } else if (inputMessage.startsWith("/unignore ")) {
+            bh.consume(inputMessage.split(" ", 2));
+        } else if (inputMessage.startsWith("/block ")) {
+            bh.consume(inputMessage.split(" ", 2));
+        } else if (inputMessage.equalsIgnoreCase("/help")) {
+            bh.consume(1);
+        } else {
+            bh.consume(inputMessage);
+        }
+    }
+
+    /**
+     * Despacho actual: camino rápido para texto y búsqueda en la tabla.
+     */
+    @Benchmark
+    public void registryLookup(Blackhole bh) {
+        String inputMessage = line;
+        if (inputMessage.isEmpty() || inputMessage.charAt(0) != '/') {
+            bh.consume(inputMessage);
+            return;
+        }
+        commandLine.reset(inputMessage);
+        bh.consume(registry.lookup(commandLine));
+        bh.consume(commandLine.argCount());
+    }
+}
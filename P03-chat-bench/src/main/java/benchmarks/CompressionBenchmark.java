@@ -0,0 +1,139 @@
+package benchmarks;
+
+import Handlers.EncodedMessage;
+import Handlers.StreamCompressor;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CPU frente a bytes ahorrados al comprimir la salida: un lote de difusiones
+ * repartido entre N destinatarios, cada uno con su propio contexto deflate
+ * (como en SocketConnection y NioConnection). compressLevel=0 es el camino
+ * sin comprimir: copiar el lote al buffer de escritura.
+ *
+ * Los contadores rawBytes y wireBytes dan los bytes antes y después de
+ * comprimir; su cociente es el ahorro y el tiempo por operación, el coste.
+ *
+ * Uso: java -jar target/benchmarks.jar CompressionBenchmark
+ *
+ * @author sergi
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+
+    private static final int SAMPLE_LINES = 1024;
+    private static final String[] WORDS = {
+        "hola", "que", "tal", "todo", "bien", "alguien", "sabe", "cuando", "empieza", "la", "partida",
+        "yo", "me", "apunto", "mañana", "por", "la", "tarde", "jajaja", "vale", "gracias", "a", "todos",
+        "el", "servidor", "va", "genial", "hoy", "sí", "no", "creo", "nos", "vemos", "luego",
+    };
+
+    @Param({"1", "16", "256"})
+    public int fanOut;
+
+    @Param({"0", "1", "6"})
+    public int compressLevel;
+
+    @Param({"1", "16"})
+    public int messagesPerFlush;                // Mensajes por lote de escritura (un SYNC_FLUSH por lote)
+
+    private EncodedMessage[] lines;
+    private int next = 0;
+    private StreamCompressor[] compressors;
+    private byte[] batch;
+
+    /**
+     * Bytes antes (rawBytes) y después (wireBytes) de comprimir, como contadores auxiliares.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Bytes {
+        public long rawBytes;
+        public long wireBytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // Tráfico de chat: mensajes de unos cuantos usuarios y avisos del sistema
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        lines = new EncodedMessage[SAMPLE_LINES];
+        for (int i = 0; i < lines.length; i++) {
+            String user = "usuario" + random.nextInt(40);
+            int kind = random.nextInt(20);
+            if (kind == 0) {
+                lines[i] = EncodedMessage.of(user + " se ha unido al chat.");
+            } else if (kind == 1) {
+                lines[i] = EncodedMessage.of(user + " ha abandonado el chat.");
+            } else {
+                StringBuilder text = new StringBuilder(user).append(':');
+                for (int w = 2 + random.nextInt(10); w > 0; w--) {
+                    text.append(' ').append(WORDS[random.nextInt(WORDS.length)]);
+                }
+                lines[i] = EncodedMessage.of(text.toString());
+            }
+        }
+        batch = new byte[16 * 1024];
+        if (compressLevel > 0) {
+            compressors = new StreamCompressor[fanOut];
+            for (int i = 0; i < fanOut; i++) {
+                compressors[i] = new StreamCompressor(compressLevel);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        if (compressors != null) {
+            for (StreamCompressor compressor : compressors) {
+                compressor.end();
+            }
+        }
+    }
+
+    /**
+     * Un lote de messagesPerFlush difusiones escrito a los fanOut destinatarios.
+     */
+    @Benchmark
+    public long broadcastBatch(Bytes bytes) {
+        int first = next;
+        next = (next + messagesPerFlush) % lines.length;
+        long wire = 0;
+        long raw = 0;
+        for (int r = 0; r < fanOut; r++) {
+            int used = 0;
+            for (int m = 0; m < messagesPerFlush; m++) {
+                used = lines[(first + m) % lines.length].copyTo(batch, used);
+            }
+            raw += used;
+            if (compressors == null) {
+                wire += used;
+            } else {
+                compressors[r].add(ByteBuffer.wrap(batch, 0, used));
+                wire += compressors[r].flush().remaining();
+            }
+        }
+        bytes.rawBytes += raw;
+        bytes.wireBytes += wire;
+        return wire;
+    }
+}
@@ -0,0 +1,80 @@
+package benchmarks;
+
+import Handlers.EncodedMessage;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Coste de repartir UNA difusión entre N destinatarios.
+ * Compara codificar el texto por cada destinatario (camino anterior) con
+ * codificarlo una vez y compartir los bytes (EncodedMessage).
+ * Cada destinatario copia la línea a un buffer como haría el socket.
+ *
+ * Uso: java -jar target/benchmarks.jar FanOutBenchmark -prof gc
+ *
+ * @author sergi
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanOutBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int recipients;
+
+    @Param({"64", "512"})
+    public int messageLength;
+
+    private String message;
+
+    // Sustituto del buffer de envío del socket de cada destinatario
+    private ByteBuffer socketBuffer;
+
+    @Setup
+    public void setup() {
+        message = "usuario: " + "á".repeat(messageLength / 2) + "x".repeat(messageLength - messageLength / 2);
+        socketBuffer = ByteBuffer.allocate(messageLength * 4 + 16);
+    }
+
+    /**
+     * Camino anterior: cada destinatario codificaba el String por su cuenta.
+     */
+    @Benchmark
+    public void encodePerRecipient(Blackhole bh) {
+        for (int i = 0; i < recipients; i++) {
+            bh.consume(write(EncodedMessage.of(message)));
+        }
+    }
+
+    /**
+     * Camino actual: una codificación y los mismos bytes para todos.
+     */
+    @Benchmark
+    public void encodeOnce(Blackhole bh) {
+        EncodedMessage encoded = EncodedMessage.of(message);
+        for (int i = 0; i < recipients; i++) {
+            bh.consume(write(encoded));
+        }
+    }
+
+    private int write(EncodedMessage encoded) {
+        socketBuffer.clear();
+        socketBuffer.put(encoded.buffer());
+        return socketBuffer.position();
+    }
+}
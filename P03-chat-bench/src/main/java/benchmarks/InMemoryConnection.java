@@ -0,0 +1,77 @@
+package benchmarks;
+
+import Handlers.ClientConnection;
+import Handlers.EncodedMessage;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Sustituto en memoria del socket de un cliente para los benchmarks.
+ * Cada envío copia la línea a un buffer propio, como haría el socket,
+ * y cuenta bytes y mensajes; no hay red ni hilos de escritura.
+ *
+ * @author sergi
+ */
+public class InMemoryConnection implements ClientConnection {
+
+    private final ByteBuffer socketBuffer;
+    private boolean binary = false;
+    private long messages = 0;
+    private long bytes = 0;
+
+    public InMemoryConnection(int bufferSize) {
+        this.socketBuffer = ByteBuffer.allocate(bufferSize);
+    }
+
+    @Override
+    public void send(EncodedMessage message) {
+        if (binary) {
+            message = message.asFrame();
+        }
+        ByteBuffer data = message.buffer();
+        if (data.remaining() > socketBuffer.remaining()) {
+            socketBuffer.clear();
+        }
+        socketBuffer.put(data);
+        messages++;
+        bytes += message.length();
+    }
+
+    @Override
+    public void enableBinaryFraming() {
+        binary = true;
+    }
+
+    @Override
+    public void enableCompression(int level) {
+        // Los benchmarks que usan esta conexión no negocian compresión
+    }
+
+    @Override
+    public void close() {
+        // Nada que cerrar
+    }
+
+    @Override
+    public InetAddress getInetAddress() {
+        return InetAddress.getLoopbackAddress();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return 0;
+    }
+
+    @Override
+    public long getDroppedMessages() {
+        return 0;
+    }
+
+    public long getMessages() {
+        return messages;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,98 @@
+package benchmarks;
+
+import concurrentChat.Presence;
+import concurrentChat.ServerMetrics;
+import concurrentChat.TimingWheel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Coste de /who: una página leída de la foto de Presence frente a recorrer
+ * el Set de clientes, copiarlo y ordenarlo en cada petición. También mide lo
+ * que paga la foto a cambio: una entrada y una salida (dos copias del array).
+ *
+ * Uso: java -jar target/benchmarks.jar PresenceBenchmark -prof gc
+ *
+ * @author sergi
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PresenceBenchmark {
+
+    private static final int PAGE_SIZE = 50;
+
+    @Param({"100", "10000"})
+    public int users;
+
+    private Set<String> clients;
+    private Presence presence;
+    private int nextId;
+
+    @Setup
+    public void setup() {
+        clients = ConcurrentHashMap.newKeySet();
+        presence = new Presence(new TimingWheel("bench-timers"), 0, new ServerMetrics());
+        for (nextId = 1; nextId <= users; nextId++) {
+            String name = "usuario" + nextId;
+            clients.add(name);
+            presence.join(nextId, name);
+        }
+    }
+
+    /**
+     * Primera página de /who desde la foto.
+     */
+    @Benchmark
+    public int whoSnapshot() {
+        Presence.Snapshot snapshot = presence.snapshot();
+        int chars = 0;
+        for (int i = 0, end = Math.min(PAGE_SIZE, snapshot.size()); i < end; i++) {
+            chars += snapshot.getName(i).length();
+        }
+        return chars;
+    }
+
+    /**
+     * La misma página recorriendo el Set de clientes (lo que se evita).
+     */
+    @Benchmark
+    public int whoWalkClients() {
+        List<String> names = new ArrayList<>(clients);
+        names.sort(String.CASE_INSENSITIVE_ORDER);
+        int chars = 0;
+        for (int i = 0, end = Math.min(PAGE_SIZE, names.size()); i < end; i++) {
+            chars += names.get(i).length();
+        }
+        return chars;
+    }
+
+    /**
+     * Un usuario entra y sale: dos fotos nuevas, sin suscritos a quien avisar.
+     */
+    @Benchmark
+    public long joinLeave() {
+        int id = nextId++;
+        String name = "nuevo" + id;
+        presence.join(id, name);
+        presence.leave(id, null);
+        return presence.snapshot().getVersion();
+    }
+}
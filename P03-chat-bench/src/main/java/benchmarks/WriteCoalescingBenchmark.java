@@ -0,0 +1,134 @@
+package benchmarks;
+
+import Handlers.EncodedMessage;
+import Handlers.OutboundQueue;
+import Handlers.SocketConnection;
+import concurrentChat.ServerMetrics;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Mensajes/s y escrituras al socket de una SocketConnection real (loopback)
+ * que recibe ráfagas de difusiones. writeBatch=1 reproduce el camino
+ * anterior (una escritura por mensaje); con lotes, cada escritura lleva
+ * varios mensajes. El contador socketWrites da las llamadas al sistema.
+ *
+ * Uso: java -jar target/benchmarks.jar WriteCoalescingBenchmark
+ *
+ * @author sergi
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriteCoalescingBenchmark {
+
+    private static final int BURST = 256;       // Difusiones seguidas hacia este cliente
+
+    @Param({"1", "16", "64"})
+    public int writeBatch;
+
+    @Param({"0", "500"})
+    public int writeDelayMicros;
+
+    @Param({"64"})
+    public int messageLength;
+
+    private ServerSocket listener;
+    private Socket client;
+    private Socket server;
+    private ExecutorService writer;
+    private Thread reader;
+    private SocketConnection connection;
+    private ServerMetrics metrics;
+    private EncodedMessage message;
+    private final AtomicLong received = new AtomicLong();
+    private long expected;
+
+    /**
+     * Escrituras al socket, como contador auxiliar de JMH.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Writes {
+        public long socketWrites;
+    }
+
+    @Setup(Level.Trial)
+    public void connect() throws IOException {
+        listener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        client = new Socket(InetAddress.getLoopbackAddress(), listener.getLocalPort());
+        server = listener.accept();
+        server.setTcpNoDelay(true);
+
+        // El cliente solo lee y cuenta bytes, lo más rápido posible
+        reader = new Thread(() -> {
+            byte[] buffer = new byte[64 * 1024];
+            try (InputStream in = client.getInputStream()) {
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    received.addAndGet(read);
+                }
+            } catch (IOException e) {
+                // Cerrado en tearDown
+            }
+        }, "bench-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        writer = Executors.newSingleThreadExecutor();
+        metrics = new ServerMetrics();
+        connection = new SocketConnection(server, writer, BURST * 4, OutboundQueue.OverflowPolicy.DISCONNECT,
+                writeBatch, TimeUnit.MICROSECONDS.toNanos(writeDelayMicros), metrics);
+        message = EncodedMessage.of("usuario: " + "x".repeat(messageLength));
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        connection.close();
+        writer.shutdown();
+        client.close();
+        listener.close();
+    }
+
+    /**
+     * Una ráfaga de BURST mensajes; termina cuando el cliente los ha leído todos.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void burst(Writes writes) {
+        long writesBefore = metrics.getSocketWrites();
+        for (int i = 0; i < BURST; i++) {
+            connection.send(message);
+        }
+        expected += (long) BURST * message.length();
+        while (received.get() < expected) {
+            Thread.onSpinWait();
+        }
+        writes.socketWrites += metrics.getSocketWrites() - writesBefore;
+    }
+}
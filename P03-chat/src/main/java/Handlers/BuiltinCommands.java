@@ -0,0 +1,74 @@
+package Handlers;
+
+/**
+ * Comandos básicos del chat. Cada uno delega en el método handleXxx
+ * correspondiente de ClientHandler.
+ *
+ * @author sergi
+ */
+public final class BuiltinCommands {
+
+    private BuiltinCommands() {
+    }
+
+    public static void register(CommandRegistry registry) {
+        registry.register("/help", "/help", "Muestra esta lista de ayuda.", 0, false,
+                (client, line) -> client.handleHelpCommand());
+
+        registry.register("/changename", "/changename [nuevo]", "Cambia tu nombre de usuario.", 1, false,
+                (client, line) -> client.handleChangeUserName(line.rest(1).trim()));
+
+        registry.register("/w", "/w [usuario] [msg]", "Envía un mensaje privado a [usuario].", 2, false,
+                (client, line) -> client.handlePrivateMessage(line.arg(1), line.rest(2)));
+
+        registry.register("/ignore", "/ignore [usuario]", "Oculta todos los mensajes de [usuario].", 1, false,
+                (client, line) -> client.handleIgnoreUser(line.rest(1).trim()));
+
+        registry.register("/unignore", "/unignore [usuario]", "Vuelve a mostrar los mensajes de [usuario].", 1, false,
+                (client, line) -> client.handleUnignoreUser(line.rest(1).trim()));
+
+        registry.register("/join", "/join [sala]", "Entra en [sala] (la crea si no existe).", 1, false,
+                (client, line) -> client.handleJoinRoom(line.arg(1)));
+
+        registry.register("/leave", "/leave", "Sale de la sala y vuelve al chat global.", 0, false,
+                (client, line) -> client.handleLeaveRoom());
+
+        registry.register("/rooms", "/rooms", "Lista las salas abiertas.", 0, false,
+                (client, line) -> client.handleRoomsCommand());
+
+        registry.register("/history", "/history [n]", "Muestra los últimos [n] mensajes de tu sala o del chat global.", 0, false,
+                (client, line) -> client.handleHistoryCommand(line.argCount() > 0 ? line.arg(1) : null));
+
+        registry.register("/who", "/who [página]", "Muestra los usuarios conectados a este nodo, por páginas.", 0, false,
+                (client, line) -> client.handleWhoCommand(line.argCount() > 0 ? line.arg(1) : null));
+
+        registry.register("/presence", "/presence [on|off]", "Recibe en lotes compactos quién entra, sale o cambia de nombre.", 1, false,
+                (client, line) -> client.handlePresenceCommand(line.arg(1)));
+
+        registry.register("/nodes", "/nodes", "Muestra los nodos del clúster y sus usuarios.", 0, false,
+                (client, line) -> client.handleNodesCommand());
+
+        registry.register("/ping", "/ping", "Comprueba la conexión; el servidor responde /pong.", 0, false,
+                (client, line) -> client.sendMessage(ClientHandler.PONG));
+
+        registry.register("/exit", "/exit", "Te desconecta del chat.", 0, false,
+                (client, line) -> client.disconnect());
+
+        // --- Comandos de administrador ---
+        registry.register("/block", "/block [usuario|ip|ip/prefijo] [minutos]",
+                "Bloquea la IP del usuario o un rango CIDR (sin minutos, para siempre) y expulsa a quien esté dentro.", 1, true,
+                (client, line) -> client.handleBlockUser(line.rest(1).trim()));
+
+        registry.register("/unblock", "/unblock [ip|ip/prefijo]", "Quita el bloqueo de esa IP o rango.", 1, true,
+                (client, line) -> client.handleUnblock(line.arg(1)));
+
+        registry.register("/blocklist", "/blocklist", "Lista los bloqueos vigentes.", 0, true,
+                (client, line) -> client.handleBlockListCommand());
+
+        registry.register("/shutdown", "/shutdown", "Apaga el servidor de forma ordenada (avisa y vacía las colas).", 0, true,
+                (client, line) -> client.handleShutdownCommand());
+
+        registry.register("/queues", "/queues", "Muestra la cola de salida de cada usuario.", 0, true,
+                (client, line) -> client.handleQueuesCommand());
+    }
+}
@@ -0,0 +1,18 @@
+package Handlers;
+
+/**
+ * Acción de un comando del chat ("/w", "/ignore"...).
+ * Se registra en el CommandRegistry del servidor; ClientHandler solo
+ * despacha, así un módulo puede añadir comandos sin tocarlo.
+ *
+ * @author sergi
+ */
+@FunctionalInterface
+public interface ChatCommand {
+
+    /**
+     * Ejecuta el comando para 'client'. Ya se comprobaron permisos y
+     * número mínimo de argumentos.
+     */
+    void execute(ClientHandler client, CommandLine line);
+}
@@ -0,0 +1,69 @@
+package Handlers;
+
+import java.net.InetAddress;
+
+/**
+ * Canal de salida hacia un cliente conectado.
+ * Permite que ClientHandler funcione igual sobre un Socket bloqueante
+ * o sobre un SocketChannel gestionado por un Selector.
+ *
+ * @author sergi
+ */
+public interface ClientConnection {
+
+    /**
+     * Envía una línea de texto al cliente.
+     */
+    default void send(String message) {
+        send(EncodedMessage.of(message));
+    }
+
+    /**
+     * Envía una línea ya codificada. La instancia puede compartirse entre
+     * varios destinatarios, por eso nunca debe modificarse.
+     */
+    void send(EncodedMessage message);
+
+    /**
+     * Pasa la conexión al protocolo binario: los mensajes enviados a partir de
+     * ahora salen como tramas (ver WireProtocol). Lo ya encolado sale en texto.
+     */
+    void enableBinaryFraming();
+
+    /**
+     * Comprime con deflate (ver StreamCompressor) todo lo que se envíe a
+     * partir de ahora; lo ya encolado sale sin comprimir.
+     *
+     * @param level nivel de deflate (1-9)
+     */
+    void enableCompression(int level);
+
+    /**
+     * Ejecuta 'task' en el hilo que atiende las líneas de esta conexión.
+     * Por defecto en el hilo que llama: en los motores bloqueantes quien
+     * espera una respuesta lo hace en el hilo del propio cliente.
+     */
+    default void execute(Runnable task) {
+        task.run();
+    }
+
+    /**
+     * Cierra la conexión. Puede llamarse desde cualquier hilo y más de una vez.
+     */
+    void close();
+
+    /**
+     * Dirección remota del cliente.
+     */
+    InetAddress getInetAddress();
+
+    /**
+     * Mensajes encolados que aún no se han escrito al cliente.
+     */
+    int getQueueDepth();
+
+    /**
+     * Mensajes descartados por desbordamiento de la cola de salida.
+     */
+    long getDroppedMessages();
+}
@@ -1,41 +1,142 @@
 package Handlers;
 
+import concurrentChat.BlockList;
+import concurrentChat.ChatLog;
+import concurrentChat.Cluster;
+import concurrentChat.FloodGuard;
+import concurrentChat.IdSet;
+import concurrentChat.MessageHistory;
+import concurrentChat.MessageLog;
+import concurrentChat.PeerLink;
+import concurrentChat.Presence;
+import concurrentChat.Room;
+import concurrentChat.RoomRegistry;
+import concurrentChat.ServerContext;
+import concurrentChat.ServerMetrics;
+import concurrentChat.SessionRegistry;
+import concurrentChat.TimingWheel;
+import concurrentChat.UserRegistry;
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
 import java.net.Socket;
-import java.util.HashSet; // Importado
+import java.util.ArrayDeque;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 /**
  * Maneja toda la lógica para un cliente individual conectado al servidor.
- * Cada instancia de esta clase se ejecuta en su propio hilo.
+ * En los motores bloqueantes cada instancia se ejecuta en su propio hilo
+ * (de plataforma o virtual) con run(); en el motor NIO el hilo de eventos
+ * le entrega las líneas con onLine().
  *
  * @author sergi
  */
 public class ClientHandler implements Runnable {
 
+    // Respuesta a /ping; el Cliente la usa como latido y no la muestra
+    public static final String PONG = "/pong";
+
+    // Reanudación: "/session <testigo>" tras el login; el cliente vuelve con
+    // "/resume <testigo> <n>" (n = líneas recibidas desde /session) y recibe
+    // "/resumed <n>" seguido solo de lo que se perdió
+    public static final String SESSION = "/session";
+    public static final String RESUME = "/resume";
+    public static final String RESUMED = "/resumed";
+
     // --- Variables de Instancia ---
-    private final Socket socket;                 // Conexión de este cliente
+    private final Socket socket;                 // Conexión de este cliente (solo motores bloqueantes)
+    private final Executor writerExecutor;       // Donde corre el escritor de la cola de salida (solo motores bloqueantes)
+    private final ServerContext context;
     private final Set<ClientHandler> clients;  // Lista compartida de *todos* los clientes
-    private final Set<String> blockList;       // Lista compartida de IPs bloqueadas
-    private String username;
-    private PrintWriter out;
-    private BufferedReader in;
+    private final UserRegistry users;            // Índice compartido nombre -> cliente
+    private final CommandRegistry commands;      // Tabla compartida de comandos
+    private final RoomRegistry rooms;            // Salas abiertas
+    private final MessageHistory history;        // Últimos mensajes del chat global
+    private final MessageLog log;                // Registro persistente (solo encola)
+    private final ServerMetrics metrics;         // Contadores compartidos (LongAdder)
+    private final CommandLine commandLine = new CommandLine(); // Se reutiliza en cada línea
+    private final BlockList blockList;           // IPs y rangos bloqueados (compartida)
+    private final Cluster cluster;               // Otros nodos (inactivo fuera de un clúster)
+    private final SessionRegistry sessions;      // Testigos para reanudar sesiones
+    private final Presence presence;             // Foto de los usuarios conectados (/who)
+    private volatile ClientConnection connection; // Canal de salida de la sesión (cambia al reanudar)
+    private ClientConnection transport;          // Conexión que atiende este manejador (la que lee su motor)
+    private volatile String username;            // Otros hilos lo leen al difundir y buscar
+    private int userId = 0;                      // ID de sesión: no cambia con /changename (0 = sin login)
+    private LineSource in;                       // Texto (BufferedReader) o tramas (FrameReader)
     private boolean isAdmin = false;             // Flag de permisos de administrador
+    private boolean compressed = false;          // Salida comprimida negociada (/compress)
+    private volatile Room room;                  // Sala actual (null = chat global)
+    private volatile boolean presenceDeltas = false; // Suscrito a /presence: entradas y salidas en lotes
+    private FloodGuard.Session flood;            // Límite de ritmo de esta conexión
+    private TimingWheel.Timeout idle;            // Plazo de inactividad (null = sin límite)
+    private boolean claiming = false;            // Esperando al clúster por un nombre (solo NIO)
+    private final ArrayDeque<String> held = new ArrayDeque<>(); // Líneas llegadas mientras tanto
+
+    // --- Reanudación (el estado lo protege synchronized (replay)) ---
+    private volatile ReplayBuffer replay;        // Líneas numeradas desde /session (null = no reanudable)
+    private String sessionToken;
+    private volatile boolean detached = false;   // Sin conexión, a la espera de "/resume"
+    private volatile boolean ending = false;     // Cierre pedido (/exit, expulsión, inactividad): no se espera
+    private TimingWheel.Timeout grace;           // Plazo para reanudar mientras está sin conexión
+    private volatile ClientHandler resumed;      // Sesión que esta conexión reanudó (este manejador solo la transporta)
 
-    // Lista personal de usuarios que este cliente no quiere leer
-    private Set<String> ignoredUsers = new HashSet<>();
+    // Evita ejecutar la limpieza dos veces (cierre propio + expulsión por un admin)
+    private final AtomicBoolean disconnected = new AtomicBoolean(false);
+
+    // IDs de los usuarios que este cliente no quiere leer
+    // (la consultan los hilos de otros clientes al difundir: sin candados ni memoria nueva)
+    private final IdSet ignoredUsers = new IdSet();
 
     /**
-     * Constructor para el manejador de cliente.
+     * Constructor para los motores bloqueantes: el manejador leerá del socket en run().
      */
-    public ClientHandler(Socket clientSocket, Set<ClientHandler> clients, Set<String> blockList) {
+    public ClientHandler(Socket clientSocket, Executor writerExecutor, ServerContext context) {
         this.socket = clientSocket;
-        this.clients = clients;
-        this.blockList = blockList;
+        this.writerExecutor = writerExecutor;
+        this.context = context;
+        this.clients = context.getClients();
+        this.users = context.getUserRegistry();
+        this.commands = context.getCommands();
+        this.rooms = context.getRooms();
+        this.history = context.getHistory();
+        this.log = context.getLog();
+        this.metrics = context.getMetrics();
+        this.blockList = context.getBlockList();
+        this.cluster = context.getCluster();
+        this.sessions = context.getSessions();
+        this.presence = context.getPresence();
+    }
+
+    /**
+     * Constructor para motores dirigidos por eventos: las líneas llegan por onLine().
+     */
+    public ClientHandler(ClientConnection connection, ServerContext context) {
+        this.socket = null;
+        this.writerExecutor = null;
+        this.context = context;
+        this.connection = connection;
+        this.transport = connection;
+        this.clients = context.getClients();
+        this.users = context.getUserRegistry();
+        this.commands = context.getCommands();
+        this.rooms = context.getRooms();
+        this.history = context.getHistory();
+        this.log = context.getLog();
+        this.metrics = context.getMetrics();
+        this.blockList = context.getBlockList();
+        this.cluster = context.getCluster();
+        this.sessions = context.getSessions();
+        this.presence = context.getPresence();
     }
 
     /**
@@ -43,157 +144,614 @@ public class ClientHandler implements Runnable {
      */
     @Override
     public void run() {
+        if (socket == null) {
+            throw new IllegalStateException("run() solo se usa con los motores bloqueantes");
+        }
         try {
-            // Inicializa los flujos de entrada y salida (true = autoFlush)
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), true);
+            // Inicializa los flujos de entrada y salida
+            BufferedInputStream input = new BufferedInputStream(socket.getInputStream());
+            connection = new SocketConnection(socket, writerExecutor,
+                    context.getConfig().outboundCapacity(), context.getConfig().overflowPolicy(),
+                    context.getConfig().writeBatch(), TimeUnit.MICROSECONDS.toNanos(context.getConfig().writeDelayMicros()),
+                    context.getMetrics());
+            transport = connection;
 
             // --- 1. PROCESO DE OBTENER USERNAME ---
-            sendMessage("Conexión establecida. Introduce tu nombre de usuario:");
-            this.username = in.readLine();
+            onConnect();
+            in = openLineSource(input);
+            String requestedName = in.readLine();
+            while ((requestedName != null && !admit(requestedName)) || !login(requestedName)) {
+                requestedName = in.readLine(); // Nombre ocupado (o demasiado rápido): pide otro
+            }
+            // Tras un /resume las líneas son de la sesión recuperada; este manejador solo la transporta
+            ClientHandler session = resumed != null ? resumed : this;
 
-            // Asigna un nombre por defecto si está vacío
-            if (this.username == null || this.username.trim().isEmpty()) {
-                this.username = "Usuario" + (int)(Math.random() * 1000);
+            // --- 2. BUCLE PRINCIPAL DE MENSAJES ---
+            // Lee líneas del cliente hasta que se desconecte (readLine() == null)
+            String inputMessage;
+            while ((inputMessage = in.readLine()) != null) {
+                if (!session.admit(inputMessage)) {
+                    if (session.disconnected.get()) {
+                        break; // Expulsado por inundación
+                    }
+                    continue;
+                }
+                if (!session.handleLine(inputMessage)) {
+                    break; // /exit
+                }
             }
 
-            // Comprueba si el usuario es un administrador
-            if (this.username.equalsIgnoreCase("admin")) {
-                this.isAdmin = true;
-                sendMessage("Nivel de administrador concedido.");
+        } catch (IOException ex) {
+            // Captura excepciones si el cliente se desconecta abruptamente
+            // (si el servidor ya cerró la conexión, el error es el esperado)
+            if (!disconnected.get()) {
+                ChatLog.info("Cliente desconectado (Error): " + ex.getMessage());
             }
+        } finally {
+            // --- 3. PROCESO DE LIMPIEZA ---
+            // Se ejecuta siempre (al salir con /exit o por un error)
+            connectionClosed();
+        }
+    }
 
-            System.err.println(username + " se ha unido al chat");
+    /**
+     * Fuente de líneas del motor bloqueante, sea cual sea el protocolo.
+     */
+    private interface LineSource {
+        String readLine() throws IOException;
+    }
 
-            // Notifica a todos los demás que un nuevo usuario se ha unido
-            broadcastMessage( username + " se ha unido al chat.", this, null); // null = remitente es el Sistema
-            sendMessage(" ¡Bienvenido " + this.username + "! Escribe /help para ver los comandos.");
+    /**
+     * Mira el primer byte sin consumirlo para elegir protocolo (ver WireProtocol).
+     */
+    private LineSource openLineSource(BufferedInputStream input) throws IOException {
+        input.mark(1);
+        int first = input.read();
+        input.reset();
 
+        if (first >= 0 && WireProtocol.isBinaryStart((byte) first)) {
+            FrameReader frames = new FrameReader(input);
+            frames.readHandshake();
+            connection.enableBinaryFraming();
+            return frames::readLine;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input));
+        return reader::readLine;
+    }
 
-            // --- 2. BUCLE PRINCIPAL DE MENSAJES ---
-            // Lee líneas del cliente hasta que se desconecte (readLine() == null)
-            String inputMessage;
-            while ((inputMessage = in.readLine()) != null) {
+    // --- CICLO DE VIDA (compartido por todos los motores) ---
 
-                // --- INICIO DEL PARSER DE COMANDOS ---
-                if (inputMessage.equalsIgnoreCase("/exit")) {
-                    break; // Sale del bucle while
+    /**
+     * Saluda al cliente recién conectado y le pide su nombre.
+     */
+    public void onConnect() {
+        flood = context.getFloodGuard().open(connection.getInetAddress().getHostAddress());
+        int idleSeconds = context.getConfig().idleTimeoutSeconds();
+        if (idleSeconds > 0) {
+            idle = context.getTimers().schedule(idleSeconds, TimeUnit.SECONDS, this::onIdleTimeout);
+        }
+        sendMessage("Conexión establecida. Introduce tu nombre de usuario:");
+    }
 
-                } else if (inputMessage.startsWith("/changename ")) {
-                    String[] parts = inputMessage.split(" ", 2);
-                    if (parts.length == 2 && !parts[1].trim().isEmpty()) {
-                        handleChangeUserName(parts[1].trim());
-                    } else {
-                        sendMessage("/changename [nuevo_nombre]");
-                    }
+    /**
+     * Renueva el plazo de inactividad: cualquier línea recibida cuenta como actividad.
+     */
+    private void touchIdle() {
+        if (idle != null) {
+            idle.touch();
+        }
+    }
 
-                } else if (inputMessage.startsWith("/w ")) {
-                    String[] parts = inputMessage.split(" ", 3);
-                    if (parts.length == 3) {
-                        handlePrivateMessage(parts[1], parts[2]);
-                    } else {
-                        sendMessage("/w [usuario] [mensaje]");
-                    }
+    /**
+     * Lo llama la rueda de temporizadores cuando vence el plazo. Solo cierra la
+     * conexión: la limpieza y el aviso de salida los hace el camino habitual
+     * (el finally de run() o el cierre del bucle de eventos).
+     */
+    private void onIdleTimeout() {
+        if (disconnected.get()) {
+            return;
+        }
+        metrics.idleTimeout();
+        ChatLog.info("Cliente desconectado por inactividad: " + connection.getInetAddress().getHostAddress()
+                + (username != null ? " (" + username + ")" : ""));
+        sendMessage("Desconectado por inactividad.");
+        closeSession();
+    }
 
-                } else if (inputMessage.startsWith("/ignore ")) {
-                    String[] parts = inputMessage.split(" ", 2);
-                    if (parts.length == 2) {
-                        handleIgnoreUser(parts[1].trim());
-                    } else {
-                        sendMessage("/ignore [usuario]");
-                    }
-                } else if (inputMessage.startsWith("/unignore ")) {
-                    String[] parts = inputMessage.split(" ", 2);
-                    if (parts.length == 2) {
-                        handleUnignoreUser(parts[1].trim());
-                    } else {
-                        sendMessage("/unignore [usuario]");
-                    }
+    /**
+     * Entrada para motores dirigidos por eventos: la primera línea es el
+     * nombre de usuario y el resto pasan por el parser de comandos.
+     */
+    public void onLine(String line) {
+        ClientHandler session = resumed;
+        if (session != null) {
+            session.onLine(line);
+            return;
+        }
+        if (disconnected.get() || !admit(line)) {
+            return;
+        }
+        if (claiming) {
+            held.add(line); // Se atiende, en orden, cuando conteste el clúster
+            return;
+        }
+        dispatch(line);
+    }
 
-                } else if (inputMessage.startsWith("/block ")) {
-                    // Solo permite /block si es admin
-                    if (isAdmin) {
-                        String[] parts = inputMessage.split(" ", 2);
-                        if (parts.length == 2) {
-                            handleBlockUser(parts[1]);
-                        } else {
-                            sendMessage(" /block [usuario]");
-                        }
-                    } else {
-                        sendMessage("No tienes permisos para usar este comando.");
-                    }
+    private void dispatch(String line) {
+        ClientHandler session = resumed;
+        if (session != null) {
+            session.onLine(line);
+        } else if (this.username == null) {
+            login(line);
+        } else if (!handleLine(line)) {
+            disconnect();
+        }
+    }
+
+    /**
+     * Registra al cliente con el nombre recibido y lo anuncia al resto.
+     * Devuelve false (y pide otro nombre) si el nombre ya está en uso; en
+     * NIO también mientras el clúster decide: el login acaba al contestar.
+     */
+    public boolean login(String requestedName) {
+        if (StreamCompressor.REQUEST.equals(requestedName)) {
+            negotiateCompression();
+            return false; // El nombre llega en la línea siguiente
+        }
+        if (requestedName != null && requestedName.startsWith(RESUME + " ")) {
+            return resume(requestedName.substring(RESUME.length() + 1).trim());
+        }
+        if (userId == 0) {
+            // Antes de registrar el nombre: quien lo encuentre en UserRegistry ya ve el ID
+            userId = users.nextUserId();
+            if (userId == 0) {
+                ChatLog.warn("IDs de usuario agotados: no se admiten más sesiones hasta reiniciar el servidor");
+                sendMessage("Error: El servidor no admite más sesiones. Inténtalo más tarde.");
+                disconnect();
+                return false;
+            }
+        }
+        if (requestedName == null || requestedName.trim().isEmpty()) {
+            // Asigna un nombre por defecto libre si está vacío
+            int bound = 1000;
+            do {
+                requestedName = "Usuario" + ThreadLocalRandom.current().nextInt(bound);
+                bound = Math.min(bound * 10, Integer.MAX_VALUE / 10);
+            } while (!users.register(requestedName, this));
+        } else if (!users.register(requestedName, this)) {
+            sendMessage("Error: El nombre '" + requestedName + "' ya está en uso. Introduce otro nombre de usuario:");
+            return false;
+        }
+        String name = requestedName;
+        claimInCluster(name, granted -> {
+            if (!granted) {
+                users.unregister(name, this); // Lo tiene un usuario de otro nodo
+                sendMessage("Error: El nombre '" + name + "' ya está en uso. Introduce otro nombre de usuario:");
+            } else if (disconnected.get()) {
+                users.unregister(name, this); // Se fue mientras el clúster decidía
+                cluster.release(name, userId);
+            } else {
+                completeLogin(name);
+            }
+        });
+        return username != null;
+    }
+
+    /**
+     * Con el nombre ya reservado en todo el clúster: da de alta al cliente.
+     */
+    private void completeLogin(String name) {
+        this.username = name;
+
+        // Comprueba si el usuario es un administrador
+        if (this.username.equalsIgnoreCase("admin")) {
+            this.isAdmin = true;
+            sendMessage("Nivel de administrador concedido.");
+        }
+        if (context.getConfig().resumeGraceSeconds() > 0) {
+            startResumableSession();
+        }
+
+        // Solo recibe difusiones una vez que tiene nombre
+        clients.add(this);
+        presence.join(userId, username);
+        ChatLog.info(username + " se ha unido al chat");
 
-                } else if (inputMessage.equalsIgnoreCase("/help")) {
-                    handleHelpCommand();
+        // Notifica a todos los demás que un nuevo usuario se ha unido
+        announcePresence(username + " se ha unido al chat.");
+        sendMessage(" ¡Bienvenido " + this.username + "! Escribe /help para ver los comandos.");
+        replayHistory(history, context.getConfig().historyReplay());
+    }
+
+    /**
+     * Respuesta a /compress antes del login: confirma con ACK (la última
+     * línea sin comprimir) y pasa la salida de la conexión a deflate.
+     */
+    private void negotiateCompression() {
+        int level = context.getConfig().compressLevel();
+        if (level == 0) {
+            sendMessage("Error: Este servidor no admite compresión.");
+            return;
+        }
+        if (compressed) {
+            sendMessage("Error: La compresión ya está activada.");
+            return;
+        }
+        compressed = true;
+        sendMessage(StreamCompressor.ACK);
+        connection.enableCompression(level);
+    }
+
+    /**
+     * Reserva 'name' (ya reservado en este nodo) en el resto del clúster y
+     * sigue con 'then' en el hilo de esta conexión. Los motores bloqueantes
+     * esperan la respuesta en el hilo del cliente; en NIO el hilo de eventos
+     * no espera: las líneas que lleguen mientras tanto se guardan y se
+     * atienden después, en orden.
+     */
+    private void claimInCluster(String name, Consumer<Boolean> then) {
+        CompletableFuture<Boolean> answer = cluster.claim(name, userId, connection.getInetAddress().getHostAddress());
+        if (socket != null || answer.isDone()) {
+            then.accept(answer.join());
+            return;
+        }
+        claiming = true;
+        ClientConnection target = connection;
+        answer.whenComplete((granted, error) -> target.execute(() -> {
+            if (error != null) {
+                System.getLogger(ClientHandler.class.getName()).log(System.Logger.Level.ERROR, "Error al reservar '" + name + "' en el clúster", error);
+            }
+            claiming = false;
+            then.accept(error == null && granted);
+            String line;
+            while (!claiming && !disconnected.get() && (line = held.poll()) != null) {
+                dispatch(line);
+            }
+        }));
+    }
 
-                } else {
-                    // Si no es un comando, es un mensaje global
-                    handleGlobalMessage(inputMessage);
+    /**
+     * Aplica el límite de ritmo a una línea recibida, antes de despacharla.
+     * Devuelve false si la línea se descarta (y desconecta si el cliente insiste).
+     * Antes del login no cuentan los límites por IP, y una línea descartada
+     * se contesta siempre: el cliente espera respuesta a su nombre.
+     */
+    private boolean admit(String line) {
+        touchIdle();
+        boolean loggedIn = username != null;
+        FloodGuard.Verdict verdict = loggedIn ? flood.check(line.length() + 1) : flood.checkLogin(line.length() + 1);
+        switch (verdict) {
+            case ALLOW -> {
+                return true;
+            }
+            case THROTTLE -> {
+                if (!loggedIn) {
+                    sendMessage("Vas demasiado rápido. Espera un momento e introduce tu nombre de usuario:");
+                } else if (flood.firstStrike()) {
+                    sendMessage("Vas demasiado rápido: tus mensajes se descartan hasta que bajes el ritmo.");
                 }
-                // --- FIN DEL PARSER DE COMANDOS ---
+                return false;
+            }
+            default -> {
+                ChatLog.warn("Cliente desconectado por inundación: " + connection.getInetAddress().getHostAddress()
+                        + (username != null ? " (" + username + ")" : ""));
+                sendMessage("Has sido desconectado por enviar demasiados mensajes.");
+                disconnect();
+                return false;
             }
+        }
+    }
 
-        } catch (IOException ex) {
-            // Captura excepciones si el cliente se desconecta abruptamente
-            System.out.println("Cliente desconectado (Error): " + ex.getMessage());
-        } finally {
-            // --- 3. PROCESO DE LIMPIEZA ---
-            // Se ejecuta siempre (al salir con /exit o por un error)
+    /**
+     * Procesa una línea ya autenticada. Devuelve false si el cliente pidió salir.
+     */
+    public boolean handleLine(String inputMessage) {
+        // Camino rápido: el texto normal no pasa por la tabla de comandos
+        if (inputMessage.isEmpty() || inputMessage.charAt(0) != '/') {
+            handleGlobalMessage(inputMessage);
+            return true;
+        }
+
+        // --- DESPACHO DE COMANDOS ---
+        commandLine.reset(inputMessage);
+        CommandRegistry.Entry command = commands.lookup(commandLine);
+        if (command == null) {
+            // Comando desconocido: se envía como mensaje global, igual que antes
+            metrics.unknownCommandIn();
+            handleGlobalMessage(inputMessage);
+        } else if (command.isAdminOnly() && !isAdmin) {
+            sendMessage("No tienes permisos para usar este comando.");
+        } else if (commandLine.argCount() < command.getMinArgs()) {
+            sendMessage(command.getUsage());
+        } else {
+            command.recordCall();
+            LongAdder previous = metrics.beginOutbound(command.messagesOut());
             try {
-                if (socket != null) socket.close();
+                command.getCommand().execute(this, commandLine);
+            } finally {
+                metrics.endOutbound(previous);
+            }
+        }
+        return !disconnected.get();
+    }
+
+    /**
+     * Cierra la conexión, saca al cliente de la lista y avisa a los demás.
+     * Solo la primera llamada tiene efecto.
+     */
+    public void disconnect() {
+        if (!disconnected.compareAndSet(false, true)) {
+            return;
+        }
+        if (flood != null) {
+            flood.close();
+        }
+        if (idle != null) {
+            idle.cancel();
+        }
+        endResumableSession();
+        if (connection != null) {
+            connection.close();
+        } else if (socket != null) {
+            // Falló antes de crear la conexión: cierra el socket directamente
+            try {
+                socket.close();
             } catch (IOException e) {
                 System.getLogger(ClientHandler.class.getName()).log(System.Logger.Level.ERROR, "Error al cerrar socket", e);
             }
+        }
 
-            // Elimina al cliente de la lista compartida
-            clients.remove(this);
-            if (this.username != null) {
-                // Notifica al servidor y a los demás usuarios
-                System.err.println(this.username + " ha abandonado el chat.");
-                broadcastMessage(this.username + " ha abandonado el chat.", this, null);
+        // Elimina al cliente de la lista compartida y libera su nombre
+        if (clients.remove(this)) {
+            leaveCurrentRoom();
+            presence.leave(userId, this);
+            users.unregister(this.username, this);
+            cluster.release(this.username, this.userId);
+            // Notifica al servidor y a los demás usuarios
+            ChatLog.info(this.username + " ha abandonado el chat.");
+            if (!context.getShutdown().isDraining()) {
+                // Al apagar salen todos: ya recibieron el aviso y no se anuncia cada salida
+                announcePresence(this.username + " ha abandonado el chat.");
             }
         }
     }
 
-    // --- MÉTODOS DE ACCIÓN (Manejo de Comandos) ---
+    // --- REANUDACIÓN DE SESIONES ---
 
     /**
-     * Cambia el nombre de usuario de este cliente.
+     * El motor avisa de que la conexión de este manejador se ha cerrado, sea
+     * cual sea el motivo. Una sesión reanudable queda a la espera durante
+     * --resume-grace; si no, se da de baja como siempre.
      */
-    public void handleChangeUserName(String newName) {
-        // Revisa si el nombre ya está en uso
-        boolean nameExists = false;
-        for (ClientHandler client : clients) {
-            if (client.username != null && client.username.equalsIgnoreCase(newName)) {
-                nameExists = true;
-                break;
+    public void connectionClosed() {
+        ClientHandler session = resumed;
+        if (session != null) {
+            session.transportLost(transport); // Esta conexión solo transportaba otra sesión
+        } else {
+            transportLost(transport);
+        }
+    }
+
+    private void transportLost(ClientConnection lost) {
+        if (lost != null) {
+            lost.close(); // Tras un error de protocolo el motor bloqueante aún no la ha cerrado
+        }
+        ReplayBuffer buffer = replay;
+        if (buffer == null || ending || disconnected.get() || context.getShutdown().isDraining()) {
+            disconnect();
+            return;
+        }
+        int graceSeconds = context.getConfig().resumeGraceSeconds();
+        synchronized (buffer) {
+            if (connection != lost || detached || ending) {
+                return; // Ya sigue por otra conexión (o está terminando)
+            }
+            detached = true;
+            if (flood != null) {
+                flood.close();
+                flood = null;
             }
+            if (idle != null) {
+                idle.cancel();
+                idle = null;
+            }
+            grace = context.getTimers().schedule(graceSeconds, TimeUnit.SECONDS, this::onGraceExpired);
         }
+        metrics.sessionDetached();
+        ChatLog.info(username + " ha perdido la conexión; su sesión se guarda " + graceSeconds + " s");
+    }
 
-        if (nameExists) {
+    /**
+     * Emite el testigo de sesión. Las líneas que se encolen desde ahora quedan
+     * numeradas en el buffer; las anteriores (y la propia /session) no cuentan.
+     */
+    private void startResumableSession() {
+        ReplayBuffer buffer = new ReplayBuffer(context.getConfig().resumeBuffer());
+        sessionToken = sessions.issue(this);
+        synchronized (buffer) {
+            replay = buffer;
+            connection.send(SESSION + " " + sessionToken);
+        }
+    }
+
+    /**
+     * "/resume <testigo> <n>" en lugar del nombre: recupera esa sesión en esta
+     * conexión. Si no se puede, lo dice y sigue esperando un nombre.
+     */
+    private boolean resume(String arguments) {
+        int space = arguments.indexOf(' ');
+        ClientHandler session = space > 0 ? sessions.lookup(arguments.substring(0, space)) : null;
+        long seen = -1;
+        if (session != null) {
+            try {
+                seen = Long.parseLong(arguments.substring(space + 1).trim());
+            } catch (NumberFormatException e) {
+                session = null;
+            }
+        }
+        if (session == null || !session.attach(this, seen)) {
+            metrics.resumeFailed();
+            if (session != null) {
+                // El testigo era bueno pero el hueco ya no está: la sesión
+                // termina y su nombre queda libre para un login normal
+                session.closeSession();
+            }
+            sendMessage("Error: No se puede reanudar la sesión. Introduce tu nombre de usuario:");
+            return false;
+        }
+        resumed = session;
+        return true;
+    }
+
+    /**
+     * Pasa esta sesión a la conexión de 'carrier' y le reenvía las líneas
+     * posteriores a 'seen', sin avisos de entrada ni salida. Vale también si
+     * la conexión anterior aún parecía viva (se cierra). Devuelve false si
+     * la sesión ya terminó o el buffer no tiene el hueco entero.
+     */
+    private boolean attach(ClientHandler carrier, long seen) {
+        ReplayBuffer buffer = replay;
+        if (buffer == null) {
+            return false;
+        }
+        ClientConnection previous;
+        boolean wasDetached;
+        int missed;
+        synchronized (buffer) {
+            if (ending || disconnected.get() || !buffer.covers(seen)) {
+                return false;
+            }
+            previous = connection;
+            wasDetached = detached;
+            detached = false;
+            if (grace != null) {
+                grace.cancel();
+                grace = null;
+            }
+            // El límite de ritmo y el plazo de inactividad pasan a ser los de la conexión nueva
+            if (flood != null) {
+                flood.close();
+            }
+            flood = carrier.flood;
+            carrier.flood = null;
+            if (carrier.idle != null) {
+                carrier.idle.cancel();
+                carrier.idle = null;
+            }
+            if (idle != null) {
+                idle.cancel();
+            }
+            int idleSeconds = context.getConfig().idleTimeoutSeconds();
+            idle = idleSeconds > 0 ? context.getTimers().schedule(idleSeconds, TimeUnit.SECONDS, this::onIdleTimeout) : null;
+
+            connection = carrier.transport;
+            connection.send(RESUMED + " " + seen);
+            missed = buffer.replay(seen, connection);
+        }
+        if (!wasDetached) {
+            previous.close(); // Medio muerta: su cierre ya no afecta a la sesión
+        }
+        metrics.sessionResumed(wasDetached);
+        ChatLog.info(username + " ha reanudado su sesión (" + missed + " líneas pendientes)");
+        return true;
+    }
+
+    /**
+     * Vence --resume-grace sin que el cliente haya vuelto: baja definitiva.
+     */
+    private void onGraceExpired() {
+        ReplayBuffer buffer = replay;
+        synchronized (buffer) {
+            if (!detached) {
+                return; // Se reanudó a tiempo
+            }
+            ending = true;
+        }
+        ChatLog.info("La sesión de " + username + " ha caducado sin reanudarse");
+        disconnect();
+    }
+
+    /**
+     * Cierra la conexión sin dejar la sesión a la espera (expulsión,
+     * inactividad). Si ya estaba sin conexión, la da de baja ahora.
+     */
+    private void closeSession() {
+        ending = true;
+        connection.close();
+        if (detached) {
+            disconnect();
+        }
+    }
+
+    /**
+     * Parte de disconnect(): anula el testigo y, si la sesión esperaba a
+     * reanudarse, su plazo.
+     */
+    private void endResumableSession() {
+        ReplayBuffer buffer = replay;
+        if (buffer == null) {
+            return;
+        }
+        boolean wasDetached;
+        synchronized (buffer) {
+            ending = true;
+            wasDetached = detached;
+            detached = false;
+            if (grace != null) {
+                grace.cancel();
+                grace = null;
+            }
+        }
+        if (wasDetached) {
+            metrics.sessionExpired();
+        }
+        sessions.remove(sessionToken, this);
+    }
+
+    // --- MÉTODOS DE ACCIÓN (Manejo de Comandos) ---
+
+    /**
+     * Cambia el nombre de usuario de este cliente.
+     */
+    public void handleChangeUserName(String newName) {
+        // Reserva el nuevo nombre sin soltar todavía el anterior
+        String oldName = this.username;
+        boolean sameName = oldName.equalsIgnoreCase(newName);
+        if (!users.register(newName, this)) {
             sendMessage("Error: El nombre '" + newName + "' ya está en uso.");
-        } else {
-            // Actualiza el nombre y notifica a todos
-            String oldName = this.username;
-            this.username = newName;
-            sendMessage(" Tu nombre ha sido cambiado a: " + newName);
-            broadcastMessage(oldName + " ahora es " + newName, this, null);
+            return;
         }
+        claimInCluster(newName, granted -> {
+            if (!granted) {
+                if (!sameName) {
+                    users.unregister(newName, this); // Lo tiene un usuario de otro nodo: se deshace
+                }
+                sendMessage("Error: El nombre '" + newName + "' ya está en uso.");
+            } else if (disconnected.get()) {
+                users.unregister(newName, this); // Se fue mientras el clúster decidía
+                cluster.release(newName, userId);
+            } else {
+                // Actualiza el nombre y notifica a todos; el anterior se libera
+                // al final, cuando ya nadie lo ve como suyo
+                this.username = newName;
+                presence.rename(userId, newName);
+                if (!sameName) {
+                    users.unregister(oldName, this);
+                    cluster.release(oldName, userId);
+                }
+                sendMessage(" Tu nombre ha sido cambiado a: " + newName);
+                announcePresence(oldName + " ahora es " + newName);
+            }
+        });
     }
 
     /**
      * Envía un mensaje privado a un usuario específico.
      */
     public void handlePrivateMessage(String targetUsername, String message) {
-        ClientHandler targetClient = null;
-
         // Busca al cliente destinatario
-        for (ClientHandler client : clients) {
-            if (client.username != null && client.username.equalsIgnoreCase(targetUsername)) {
-                targetClient = client;
-                break;
-            }
-        }
+        ClientHandler targetClient = users.lookup(targetUsername);
 
         if (targetClient != null) {
             // No se puede auto-enviar
@@ -203,27 +761,210 @@ public class ClientHandler implements Runnable {
             }
 
             // FILTRO DE IGNORADOS: Comprueba si el destinatario está ignorando al remitente
-            if (targetClient.ignoredUsers.contains(this.username.toLowerCase())) {
+            if (targetClient.ignoredUsers.contains(this.userId)) {
                 sendMessage( targetClient.username + " no puede recibir tus mensajes (te ha ignorado).");
                 return; // No envía el mensaje
             }
 
             // Envía el mensaje al destinatario y la confirmación al remitente
+            log.privateMessage(this.username, targetClient.username, message);
             targetClient.sendMessage("(Privado de " + this.username + "): " + message);
             sendMessage("(Mensaje a " + targetClient.username + "): " + message);
 
         } else {
-            sendMessage(" Error: Usuario '" + targetUsername + "' no encontrado.");
+            Cluster.Member remote = cluster.locate(targetUsername);
+            if (remote == null || remote.getNodeId() == cluster.getNodeId()) {
+                sendMessage(" Error: Usuario '" + targetUsername + "' no encontrado.");
+                return;
+            }
+            // Va directo a su nodo; si allí no se puede entregar, avisa de vuelta
+            log.privateMessage(this.username, remote.getName(), message);
+            cluster.sendPrivate(remote, this.userId, this.username, message);
+            sendMessage("(Mensaje a " + remote.getName() + "): " + message);
         }
     }
 
     /**
-     * Procesa un mensaje global (broadcast) de este usuario.
+     * Procesa un mensaje normal de este usuario: va a su sala actual o,
+     * si no está en ninguna, a todos (broadcast).
      */
     public void handleGlobalMessage(String message) {
-        String globalMessage = this.username + ": " + message;
-        // Llama a broadcastMessage especificando 'this' como el remitente para el filtro
-        broadcastMessage(globalMessage, null, this);
+        Room current = this.room;
+        if (current != null) {
+            metrics.roomMessageIn();
+            // Solo recorre los miembros de la sala
+            String roomLine = "[" + current.getName() + "] " + this.username + ": " + message;
+            EncodedMessage roomMessage = EncodedMessage.of(roomLine);
+            current.getHistory().append(this.userId, roomMessage);
+            log.room(current.getName(), this.username, roomLine);
+            metrics.roomMessagesOut(broadcastTo(current.getMembers(), roomMessage, null, this));
+            return;
+        }
+        metrics.globalMessageIn();
+        String globalLine = this.username + ": " + message;
+        EncodedMessage globalMessage = EncodedMessage.of(globalLine);
+        history.append(this.userId, globalMessage);
+        log.global(this.username, globalLine);
+        // Difunde especificando 'this' como el remitente para el filtro
+        metrics.globalMessagesOut(broadcastTo(clients, globalMessage, null, this));
+        cluster.global(this.userId, this.username, globalLine);
+    }
+
+    /**
+     * Reenvía los últimos mensajes de la sala actual o, fuera de salas, del chat global.
+     */
+    public void handleHistoryCommand(String count) {
+        int n = context.getConfig().historyReplay();
+        if (count != null) {
+            try {
+                n = Integer.parseInt(count);
+            } catch (NumberFormatException e) {
+                sendMessage("/history [n]");
+                return;
+            }
+        }
+        Room current = this.room;
+        int shown = replayHistory(current != null ? current.getHistory() : history, n);
+        if (shown == 0) {
+            sendMessage("No hay mensajes en el historial.");
+        }
+    }
+
+    /**
+     * Envía a este cliente los últimos 'count' mensajes de 'source',
+     * saltando los de usuarios que ignora. Devuelve cuántos ha enviado.
+     */
+    private int replayHistory(MessageHistory source, int count) {
+        if (count <= 0) {
+            return 0;
+        }
+        int[] shown = {0};
+        source.forEachRecent(count, (senderId, message) -> {
+            if (!ignoredUsers.contains(senderId)) {
+                if (shown[0]++ == 0) {
+                    sendMessage(" --- MENSAJES ANTERIORES ---");
+                }
+                sendMessage(message);
+            }
+        });
+        if (shown[0] > 0) {
+            sendMessage("-----------------------------------------");
+        }
+        return shown[0];
+    }
+
+    /**
+     * Entra en una sala (creándola si no existe), saliendo de la anterior.
+     */
+    public void handleJoinRoom(String roomName) {
+        Room current = this.room;
+        if (current != null && current.getName().equalsIgnoreCase(roomName)) {
+            sendMessage("Ya estás en la sala '" + current.getName() + "'.");
+            return;
+        }
+        leaveCurrentRoom();
+
+        Room joined = rooms.join(roomName, this);
+        this.room = joined;
+        sendMessage(" Has entrado en la sala '" + joined.getName() + "' (" + joined.size() + " miembros). Usa /leave para volver al chat global.");
+        broadcastTo(joined.getMembers(), "[" + joined.getName() + "] " + this.username + " ha entrado en la sala.", this, null);
+        replayHistory(joined.getHistory(), context.getConfig().historyReplay());
+    }
+
+    /**
+     * Sale de la sala actual y vuelve al chat global.
+     */
+    public void handleLeaveRoom() {
+        Room current = this.room;
+        if (current == null) {
+            sendMessage("No estás en ninguna sala.");
+            return;
+        }
+        leaveCurrentRoom();
+        sendMessage(" Has salido de la sala '" + current.getName() + "'. Vuelves al chat global.");
+    }
+
+    /**
+     * Lista las salas abiertas con su número de miembros.
+     */
+    public void handleRoomsCommand() {
+        List<Room> open = rooms.snapshot();
+        if (open.isEmpty()) {
+            sendMessage("No hay salas abiertas. Crea una con /join [sala].");
+            return;
+        }
+        sendMessage(" --- SALAS ABIERTAS ---");
+        for (Room r : open) {
+            sendMessage(" " + r.getName() + " (" + r.size() + ")" + (r == this.room ? " <- estás aquí" : ""));
+        }
+    }
+
+    /**
+     * Lista una página de los usuarios conectados a este nodo. Sale de la
+     * foto de Presence: no recorre la lista de clientes.
+     */
+    public void handleWhoCommand(String page) {
+        int number = 1;
+        if (page != null) {
+            try {
+                number = Integer.parseInt(page);
+            } catch (NumberFormatException e) {
+                number = 0;
+            }
+            if (number < 1) {
+                sendMessage("/who [página]");
+                return;
+            }
+        }
+        Presence.Snapshot snapshot = presence.snapshot();
+        int pageSize = context.getConfig().whoPageSize();
+        int pages = Math.max(1, (snapshot.size() + pageSize - 1) / pageSize);
+        if (number > pages) {
+            sendMessage("Error: Solo hay " + pages + " página(s).");
+            return;
+        }
+        sendMessage(" --- USUARIOS CONECTADOS: " + snapshot.size() + " (página " + number + " de " + pages + ") ---");
+        int end = Math.min(snapshot.size(), number * pageSize);
+        for (int i = (number - 1) * pageSize; i < end; i++) {
+            sendMessage(" " + snapshot.getName(i) + (snapshot.getId(i) == userId ? " <- tú" : ""));
+        }
+        if (number < pages) {
+            sendMessage(" Usa /who " + (number + 1) + " para ver la siguiente página.");
+        }
+    }
+
+    /**
+     * /presence on: a partir de ahora las entradas, salidas y cambios de
+     * nombre llegan en lotes compactos (ver Presence) en lugar de una línea
+     * de aviso por evento. /presence off vuelve a los avisos.
+     */
+    public void handlePresenceCommand(String mode) {
+        if ("on".equalsIgnoreCase(mode)) {
+            // Primero deja de recibir avisos: lo que pase desde aquí ya va en los lotes
+            presenceDeltas = true;
+            if (!presence.subscribe(this)) {
+                sendMessage("Ya estás suscrito a /presence.");
+            }
+        } else if ("off".equalsIgnoreCase(mode)) {
+            presenceDeltas = false; // Antes de salir de los lotes: mejor un aviso repetido que uno perdido
+            if (presence.unsubscribe(this)) {
+                sendMessage("Vuelves a recibir los avisos de entrada y salida.");
+            } else {
+                sendMessage("No estás suscrito a /presence.");
+            }
+        } else {
+            sendMessage("/presence [on|off]");
+        }
+    }
+
+    private void leaveCurrentRoom() {
+        Room current = this.room;
+        if (current == null) {
+            return;
+        }
+        this.room = null;
+        rooms.leave(current, this);
+        broadcastTo(current.getMembers(), "[" + current.getName() + "] " + this.username + " ha salido de la sala.", this, null);
     }
 
 
@@ -233,7 +974,33 @@ public class ClientHandler implements Runnable {
      * Envía un mensaje solo a ESTE cliente.
      */
     public void sendMessage(String message) {
-        out.println(message); // out tiene autoFlush
+        metrics.messagesOut(1);
+        enqueue(EncodedMessage.of(message));
+    }
+
+    /**
+     * Envía a ESTE cliente una línea ya codificada (compartida en difusiones).
+     */
+    public void sendMessage(EncodedMessage message) {
+        metrics.messagesOut(message.lineCount());
+        enqueue(message);
+    }
+
+    /**
+     * Único punto de salida hacia el cliente. En una sesión reanudable numera
+     * la línea y la encola en el mismo paso, así el orden de la cola es el de
+     * los números aunque difundan varios hilos a la vez.
+     */
+    private void enqueue(EncodedMessage message) {
+        ReplayBuffer buffer = replay;
+        if (buffer == null) {
+            connection.send(message);
+            return;
+        }
+        synchronized (buffer) {
+            buffer.append(message);
+            connection.send(message); // Sin conexión no envía nada: queda en el buffer
+        }
     }
 
     /**
@@ -242,104 +1009,295 @@ public class ClientHandler implements Runnable {
      * 'sender' se usa para el filtro de ignorados.
      */
     public void broadcastMessage(String message, ClientHandler excludeUser, ClientHandler sender) {
-        for (ClientHandler client : clients) {
+        broadcastTo(clients, message, excludeUser, sender);
+        cluster.global(sender != null ? sender.userId : 0, null, message);
+    }
+
+    /**
+     * Aviso del sistema de que alguien entra, sale o cambia de nombre. No va
+     * a los suscritos a /presence, que lo reciben en el siguiente lote.
+     */
+    private void announcePresence(String message) {
+        broadcastTo(() -> clients.stream().filter(client -> !client.presenceDeltas).iterator(), message, this, null);
+        cluster.global(0, null, message);
+    }
+
+    /**
+     * Como broadcastMessage, pero solo a 'targets' (por ejemplo, una sala).
+     */
+    public void broadcastTo(Iterable<ClientHandler> targets, String message, ClientHandler excludeUser, ClientHandler sender) {
+        // Se codifica una sola vez; todos los destinatarios comparten los mismos bytes
+        broadcastTo(targets, EncodedMessage.of(message), excludeUser, sender);
+    }
+
+    /**
+     * Difunde una línea ya codificada (la misma que se guarda en el historial).
+     * Devuelve a cuántos clientes se ha encolado.
+     */
+    public int broadcastTo(Iterable<ClientHandler> targets, EncodedMessage encoded, ClientHandler excludeUser, ClientHandler sender) {
+        return deliver(targets, encoded, excludeUser, sender != null ? sender.userId : 0, metrics);
+    }
+
+    /**
+     * Difusión que llega de otro nodo del clúster: mismo reparto, con el
+     * remitente identificado solo por su ID (0 = Sistema).
+     */
+    public static void deliver(Iterable<ClientHandler> targets, EncodedMessage encoded, int senderId, ServerMetrics metrics) {
+        deliver(targets, encoded, null, senderId, metrics);
+    }
+
+    private static int deliver(Iterable<ClientHandler> targets, EncodedMessage encoded, ClientHandler excludeUser,
+                               int senderId, ServerMetrics metrics) {
+        long start = System.nanoTime();
+        int recipients = 0;
+        for (ClientHandler client : targets) {
             // 1. Omitir al usuario excluido
             if (client == excludeUser) {
                 continue;
             }
 
             // 2. FILTRO DE IGNORADOS: Si hay remitente Y el cliente actual lo ignora...
-            if (sender != null && client.ignoredUsers.contains(sender.username.toLowerCase())) {
+            if (senderId != 0 && client.ignoredUsers.contains(senderId)) {
                 continue; // ...no enviar el mensaje.
             }
 
-            // 3. Enviar mensaje
-            client.sendMessage(message);
+            // 3. Enviar mensaje (se cuenta al final, una vez por difusión)
+            client.enqueue(encoded);
+            recipients++;
         }
+        metrics.messagesOut(recipients);
+        metrics.broadcast(recipients, System.nanoTime() - start);
+        return recipients;
     }
 
     /**
-     * (Admin) Bloquea la IP de un usuario y lo expulsa.
+     * (Admin) Bloquea la IP de un usuario, una IP o un rango CIDR
+     * ("objetivo [minutos]") y expulsa a todos los conectados desde dentro.
      */
-    public void handleBlockUser(String targetUsername) {
-        ClientHandler targetClient = null;
-
-        // Busca al cliente a bloquear
-        for (ClientHandler client : clients) {
-            if (client.username != null && client.username.equalsIgnoreCase(targetUsername)) {
-                targetClient = client;
-                break;
+    public void handleBlockUser(String argument) {
+        // Si la última palabra es un número, es la duración en minutos
+        String target = argument;
+        long minutes = 0;
+        int space = argument.lastIndexOf(' ');
+        if (space > 0) {
+            try {
+                minutes = Long.parseLong(argument.substring(space + 1));
+                target = argument.substring(0, space).trim();
+            } catch (NumberFormatException e) {
+                // Forma parte del nombre de usuario
             }
         }
+        if (minutes < 0) {
+            sendMessage("Error: La duración debe ser un número de minutos positivo.");
+            return;
+        }
 
-        if (targetClient == this) {
-            sendMessage("No te puedes bloquear a ti mismo.");
+        // Un usuario conectado (aquí o en otro nodo) se bloquea por su IP; si no, se interpreta como IP o rango
+        ClientHandler targetClient = users.lookup(target);
+        Cluster.Member remote = targetClient == null ? cluster.locate(target) : null;
+        String prefix = targetClient != null ? targetClient.connection.getInetAddress().getHostAddress()
+                : remote != null ? remote.getAddress() : target;
+        try {
+            if (targetClient == this || (targetClient == null && remote == null && BlockList.covers(prefix, connection.getInetAddress()))) {
+                sendMessage("No te puedes bloquear a ti mismo.");
+                return;
+            }
+            long expiresAt = minutes == 0 ? BlockList.PERMANENT : System.currentTimeMillis() + minutes * 60_000L;
+            prefix = blockList.block(prefix, expiresAt);
+            log.block(prefix, this.username, expiresAt);
+            cluster.block(prefix, expiresAt, this.username);
+        } catch (IllegalArgumentException e) {
+            sendMessage("Error: '" + target + "' no es un usuario conectado ni una IP o rango válido.");
             return;
         }
+        String duration = minutes == 0 ? "" : " durante " + minutes + " min";
+        ChatLog.warn(prefix + " ha sido añadido a la blocklist" + duration + " por " + this.username);
 
-        if (targetClient != null) {
-            // Obtiene la IP y la añade a la lista de bloqueo compartida
-            String targetIP = targetClient.socket.getInetAddress().getHostAddress();
-            blockList.add(targetIP);
+        int kicked = kickBlocked(clients, prefix, this);
+        sendMessage(" " + prefix + " ha sido bloqueado" + duration + " (" + kicked + " usuario(s) expulsado(s)"
+                + (cluster.isEnabled() ? " en este nodo" : "") + ").");
+    }
 
-            System.err.println("El usuario " + targetClient.username + " (IP: " + targetIP + ") ha sido añadido a la blocklist por " + this.username);
+    /**
+     * Avisa a los clientes conectados desde dentro de 'prefix' (salvo 'except')
+     * y cierra sus conexiones para expulsarlos. Devuelve cuántos eran.
+     */
+    public static int kickBlocked(Iterable<ClientHandler> targets, String prefix, ClientHandler except) {
+        int kicked = 0;
+        for (ClientHandler client : targets) {
+            if (client != except && BlockList.covers(prefix, client.connection.getInetAddress())) {
+                client.sendMessage(" Has sido bloqueado y desconectado por un administrador.");
+                client.closeSession();
+                kicked++;
+            }
+        }
+        return kicked;
+    }
 
-            // Notifica al usuario y cierra su socket para expulsarlo
-            targetClient.sendMessage(" Has sido bloqueado y desconectado por un administrador.");
-            try {
-                targetClient.socket.close();
-            } catch (IOException e) {
-                System.err.println("Error al cerrar el socket del usuario bloqueado: " + e.getMessage());
+    /**
+     * (Admin) Quita el bloqueo de una IP o rango exacto.
+     */
+    public void handleUnblock(String prefix) {
+        try {
+            if (!blockList.unblock(prefix)) {
+                sendMessage("Error: '" + prefix + "' no está bloqueado (usa el mismo prefijo que en /block).");
+                return;
             }
+        } catch (IllegalArgumentException e) {
+            sendMessage("Error: '" + prefix + "' no es una IP o rango válido.");
+            return;
+        }
+        log.unblock(prefix, this.username);
+        cluster.unblock(prefix, this.username);
+        ChatLog.warn(prefix + " ha sido retirado de la blocklist por " + this.username);
+        sendMessage(" " + prefix + " ya no está bloqueado.");
+    }
+
+    /**
+     * (Admin) Lista los bloqueos vigentes y cuándo caducan.
+     */
+    public void handleBlockListCommand() {
+        List<BlockList.Entry> entries = blockList.snapshot();
+        sendMessage(" --- BLOQUEOS (" + entries.size() + ") ---");
+        long now = System.currentTimeMillis();
+        for (BlockList.Entry entry : entries) {
+            String expires = entry.getExpiresAt() == BlockList.PERMANENT
+                    ? "permanente" : "caduca en " + Math.max(1, (entry.getExpiresAt() - now) / 60_000L) + " min";
+            sendMessage(" " + entry.getPrefix() + " - " + expires);
+        }
+    }
 
-            sendMessage(" El usuario " + targetUsername + " (IP: " + targetIP + ") ha sido bloqueado y expulsado.");
+    /**
+     * (Admin) Inicia el apagado ordenado del servidor.
+     */
+    public void handleShutdownCommand() {
+        ChatLog.warn("Apagado pedido por " + this.username);
+        sendMessage(" Apagando el servidor...");
+        context.getShutdown().drainAndExit("apagado pedido por " + this.username);
+    }
 
-        } else {
-            sendMessage("Error: Usuario '" + targetUsername + "' no encontrado.");
+    /**
+     * (Admin) Muestra cuántos mensajes tiene pendientes cada cliente y cuántos
+     * se le han descartado, para ver quién se está quedando atrás.
+     */
+    public void handleQueuesCommand() {
+        sendMessage(" --- COLAS DE SALIDA (pendientes / descartados) ---");
+        for (ClientHandler client : clients) {
+            sendMessage(" " + client.username + ": " + client.getQueueDepth() + " / " + client.getDroppedMessages());
         }
     }
 
+    /**
+     * Muestra los nodos del clúster, si sus enlaces están activos y cuántos usuarios tienen.
+     */
+    public void handleNodesCommand() {
+        if (!cluster.isEnabled()) {
+            sendMessage("Este servidor no forma parte de un clúster.");
+            return;
+        }
+        sendMessage(" --- NODOS DEL CLÚSTER ---");
+        sendMessage(" " + cluster.getNodeId() + " (este nodo): " + cluster.countMembers(cluster.getNodeId()) + " usuarios");
+        for (PeerLink link : cluster.getLinks()) {
+            int node = link.getPeer().getNodeId();
+            sendMessage(" " + node + " " + link.getPeer() + ": " + (link.isConnected() ? "conectado" : "sin conexión")
+                    + ", " + cluster.countMembers(node) + " usuarios");
+        }
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * true si este cliente ignora al usuario 'senderId'.
+     */
+    public boolean isIgnoring(int senderId) {
+        return ignoredUsers.contains(senderId);
+    }
+
+    /**
+     * Mensajes pendientes en la cola de salida de este cliente.
+     */
+    public int getQueueDepth() {
+        return connection == null ? 0 : connection.getQueueDepth();
+    }
+
+    /**
+     * Mensajes descartados a este cliente por desbordamiento de su cola.
+     */
+    public long getDroppedMessages() {
+        return connection == null ? 0 : connection.getDroppedMessages();
+    }
+
     /**
      * Envía la lista de comandos disponibles a este cliente.
      */
     public void handleHelpCommand() {
         sendMessage(" --- LISTA DE COMANDOS DISPONIBLES ---");
-        sendMessage(" /help                 - Muestra esta lista de ayuda.");
-        sendMessage(" /changename [nuevo]   - Cambia tu nombre de usuario.");
-        sendMessage(" /w [usuario] [msg]    - Envía un mensaje privado a [usuario].");
-        sendMessage(" /ignore [usuario]     - Oculta todos los mensajes de [usuario].");
-        sendMessage(" /unignore [usuario]   - Vuelve a mostrar los mensajes de [usuario].");
-        sendMessage(" (cualquier texto)     - Envía un mensaje global a todos.");
-        sendMessage(" /exit                 - Te desconecta del chat.");
+        for (CommandRegistry.Entry command : commands.commands()) {
+            if (!command.isAdminOnly()) {
+                sendMessage(helpLine(command.getUsage(), command.getDescription()));
+            }
+        }
+        sendMessage(helpLine("(cualquier texto)", "Envía un mensaje a tu sala o, fuera de salas, a todos."));
 
         // Muestra comandos de admin solo si tiene permisos
         if (isAdmin) {
             sendMessage("--- COMANDOS DE ADMINISTRADOR ---");
-            sendMessage(" /block [usuario]      - Bloquea la IP del usuario y lo expulsa.");
+            for (CommandRegistry.Entry command : commands.commands()) {
+                if (command.isAdminOnly()) {
+                    sendMessage(helpLine(command.getUsage(), command.getDescription()));
+                }
+            }
         }
         sendMessage("-----------------------------------------");
     }
 
+    private static String helpLine(String usage, String description) {
+        return String.format(" %-22s- %s", usage, description);
+    }
+
     /**
      * Añade un usuario a la lista personal de ignorados de este cliente.
      */
     public void handleIgnoreUser(String targetUsername) {
-        if (targetUsername.equalsIgnoreCase(this.username)) {
+        ClientHandler targetClient = users.lookup(targetUsername);
+        if (targetClient == this) {
             sendMessage(" No puedes ignorarte a ti mismo.");
             return;
         }
+        int targetId;
+        String targetName;
+        Cluster.Member remote;
+        if (targetClient != null) {
+            targetId = targetClient.userId;
+            targetName = targetClient.username;
+        } else if ((remote = cluster.locate(targetUsername)) != null && remote.getNodeId() != cluster.getNodeId()) {
+            targetId = remote.getUserId();   // Usuario de otro nodo
+            targetName = remote.getName();
+        } else {
+            sendMessage("Error: Usuario '" + targetUsername + "' no encontrado.");
+            return;
+        }
 
-        // Añade el nombre a la lista (en minúsculas para ser case-insensitive)
-        ignoredUsers.add(targetUsername.toLowerCase());
-        sendMessage("Ahora estás ignorando a '" + targetUsername + "'.");
+        // Se guarda su ID, así el bloqueo sigue aunque cambie de nombre
+        ignoredUsers.add(targetId);
+        sendMessage("Ahora estás ignorando a '" + targetName + "'.");
     }
 
     /**
      * Quita a un usuario de la lista personal de ignorados.
      */
     public void handleUnignoreUser(String targetUsername) {
-        // Intenta quitar el nombre (en minúsculas)
-        if (ignoredUsers.remove(targetUsername.toLowerCase())) {
+        // Busca su ID por el nombre que tenga ahora (aquí o en otro nodo)
+        ClientHandler targetClient = users.lookup(targetUsername);
+        Cluster.Member remote = targetClient == null ? cluster.locate(targetUsername) : null;
+        int targetId = targetClient != null ? targetClient.userId : remote != null ? remote.getUserId() : 0;
+        if (targetId != 0 && ignoredUsers.remove(targetId)) {
             sendMessage("Ya no estás ignorando a '" + targetUsername + "'.");
         } else {
             sendMessage("No estabas ignorando a '" + targetUsername + "'.");
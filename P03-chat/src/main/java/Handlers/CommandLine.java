@@ -0,0 +1,94 @@
+package Handlers;
+
+/**
+ * Vista por índices de una línea de comando ("/w ana hola a todos").
+ * Guarda dónde empieza y termina cada palabra en lugar de partir el String,
+ * así analizar una línea no reserva memoria; solo se crean los substrings
+ * que el comando pide. Cada ClientHandler reutiliza la misma instancia.
+ *
+ * @author sergi
+ */
+public final class CommandLine {
+
+    private static final int MAX_TOKENS = 8;
+
+    private final int[] starts = new int[MAX_TOKENS];
+    private final int[] ends = new int[MAX_TOKENS];
+    private String line = "";
+    private int count = 0;
+
+    /**
+     * Analiza una nueva línea. Las palabras se separan por uno o más espacios.
+     */
+    public CommandLine reset(String line) {
+        this.line = line;
+        this.count = 0;
+        int length = line.length();
+        int i = 0;
+        while (i < length && count < MAX_TOKENS) {
+            while (i < length && line.charAt(i) == ' ') {
+                i++;
+            }
+            if (i == length) {
+                break;
+            }
+            starts[count] = i;
+            while (i < length && line.charAt(i) != ' ') {
+                i++;
+            }
+            ends[count++] = i;
+        }
+        return this;
+    }
+
+    /**
+     * La línea completa tal como llegó.
+     */
+    public String raw() {
+        return line;
+    }
+
+    /**
+     * Número de argumentos, sin contar el propio comando.
+     */
+    public int argCount() {
+        return Math.max(0, count - 1);
+    }
+
+    /**
+     * Inicio del comando (palabra 0) dentro de la línea.
+     */
+    public int commandStart() {
+        return count == 0 ? 0 : starts[0];
+    }
+
+    /**
+     * Fin (exclusivo) del comando dentro de la línea.
+     */
+    public int commandEnd() {
+        return count == 0 ? 0 : ends[0];
+    }
+
+    /**
+     * Palabra 'index' (0 = comando, 1 = primer argumento...).
+     */
+    public String arg(int index) {
+        checkIndex(index);
+        return line.substring(starts[index], ends[index]);
+    }
+
+    /**
+     * Todo lo que hay desde la palabra 'index' hasta el final, espacios incluidos
+     * (para el texto de un mensaje).
+     */
+    public String rest(int index) {
+        checkIndex(index);
+        return line.substring(starts[index]);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Argumento " + index + " de " + count);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package Handlers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tabla de comandos del chat indexada por su nombre ("/w", "/help"...).
+ * La búsqueda compara directamente sobre la línea recibida (sin crear
+ * el substring del comando) y no distingue mayúsculas.
+ * Registrar es raro (arranque, módulos) y buscar es constante, por eso
+ * la tabla se copia al registrar y se lee sin candados.
+ *
+ * @author sergi
+ */
+public class CommandRegistry {
+
+    /**
+     * Un comando registrado con sus datos de ayuda y validación.
+     */
+    public static final class Entry {
+        private final String name;
+        private final String usage;
+        private final String description;
+        private final int minArgs;
+        private final boolean adminOnly;
+        private final ChatCommand command;
+        private final LongAdder calls = new LongAdder();   // Para las métricas
+        private final LongAdder messagesOut = new LongAdder(); // Mensajes encolados al ejecutarlo
+
+        private Entry(String name, String usage, String description, int minArgs, boolean adminOnly, ChatCommand command) {
+            this.name = name;
+            this.usage = usage;
+            this.description = description;
+            this.minArgs = minArgs;
+            this.adminOnly = adminOnly;
+            this.command = command;
+        }
+
+        public String getName() { return name; }
+        public String getUsage() { return usage; }
+        public String getDescription() { return description; }
+        public int getMinArgs() { return minArgs; }
+        public boolean isAdminOnly() { return adminOnly; }
+        public ChatCommand getCommand() { return command; }
+        public long getCalls() { return calls.sum(); }
+        public long getMessagesOut() { return messagesOut.sum(); }
+        public LongAdder messagesOut() { return messagesOut; }
+
+        public void recordCall() {
+            calls.increment();
+        }
+    }
+
+    // Tabla hash de direccionamiento abierto; tamaño potencia de 2
+    private volatile Entry[] table = new Entry[32];
+    private volatile List<Entry> ordered = Collections.emptyList();
+
+    /**
+     * Registra (o reemplaza) un comando.
+     *
+     * @param name        nombre con la barra, por ejemplo "/w"
+     * @param usage       sintaxis mostrada en /help y si faltan argumentos
+     * @param description texto de /help
+     * @param minArgs     argumentos obligatorios después del nombre
+     * @param adminOnly   si solo pueden usarlo administradores
+     */
+    public synchronized void register(String name, String usage, String description, int minArgs,
+                                      boolean adminOnly, ChatCommand command) {
+        if (name.isEmpty() || name.charAt(0) != '/' || name.indexOf(' ') >= 0) {
+            throw new IllegalArgumentException("Nombre de comando inválido: " + name);
+        }
+        Entry entry = new Entry(name, usage, description, minArgs, adminOnly, command);
+
+        List<Entry> newOrdered = new ArrayList<>(ordered);
+        newOrdered.removeIf(e -> e.name.equalsIgnoreCase(name));
+        newOrdered.add(entry);
+
+        int size = table.length;
+        while (size < newOrdered.size() * 4) {
+            size *= 2; // Mantiene la tabla poco llena para sondeos cortos
+        }
+        Entry[] newTable = new Entry[size];
+        for (Entry e : newOrdered) {
+            int slot = hash(e.name, 0, e.name.length()) & (size - 1);
+            while (newTable[slot] != null) {
+                slot = (slot + 1) & (size - 1);
+            }
+            newTable[slot] = e;
+        }
+
+        table = newTable;
+        ordered = Collections.unmodifiableList(newOrdered);
+    }
+
+    /**
+     * Busca el comando de una línea ya analizada, o null si no existe.
+     */
+    public Entry lookup(CommandLine line) {
+        return lookup(line.raw(), line.commandStart(), line.commandEnd());
+    }
+
+    /**
+     * Busca el comando que ocupa line[start, end), sin reservar memoria.
+     */
+    public Entry lookup(String line, int start, int end) {
+        Entry[] current = table;
+        int mask = current.length - 1;
+        int length = end - start;
+        int slot = hash(line, start, end) & mask;
+        Entry entry;
+        while ((entry = current[slot]) != null) {
+            if (entry.name.length() == length && entry.name.regionMatches(true, 0, line, start, length)) {
+                return entry;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Comandos en orden de registro (para /help).
+     */
+    public List<Entry> commands() {
+        return ordered;
+    }
+
+    private static int hash(String s, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + Character.toLowerCase(s.charAt(i));
+        }
+        return h ^ (h >>> 16);
+    }
+}
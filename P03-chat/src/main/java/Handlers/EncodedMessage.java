@@ -0,0 +1,138 @@
+package Handlers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Línea de salida ya codificada en UTF-8 (con su salto de línea).
+ * Es inmutable: una difusión la codifica una sola vez y la misma instancia
+ * se entrega a la cola de salida de todos los destinatarios. Con join()
+ * puede llevar varias líneas seguidas que ocupan un solo hueco de la cola.
+ *
+ * @author sergi
+ */
+public final class EncodedMessage {
+
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    /**
+     * Marca para las colas de salida: lo que va detrás se escribe comprimido
+     * (ver ClientConnection.enableCompression). No tiene bytes y no se envía.
+     */
+    public static final EncodedMessage START_COMPRESSION = new EncodedMessage(new byte[0], 0);
+
+    private final byte[] bytes;
+    private final int payloadLength;            // Bytes de la línea sin el salto
+    private final EncodedMessage[] lines;       // Líneas de un mensaje de join(); null = una sola
+
+    // Versión en trama binaria; se construye la primera vez que la pide un cliente binario
+    private volatile EncodedMessage frame;
+
+    private EncodedMessage(byte[] bytes, int payloadLength) {
+        this(bytes, payloadLength, null);
+    }
+
+    private EncodedMessage(byte[] bytes, int payloadLength, EncodedMessage[] lines) {
+        this.bytes = bytes;
+        this.payloadLength = payloadLength;
+        this.lines = lines;
+    }
+
+    /**
+     * Codifica una línea de texto para enviarla.
+     */
+    public static EncodedMessage of(String line) {
+        byte[] bytes = (line + LINE_SEPARATOR).getBytes(StandardCharsets.UTF_8);
+        return new EncodedMessage(bytes, bytes.length - LINE_SEPARATOR.length());
+    }
+
+    /**
+     * Varias líneas (de una en una, ya codificadas) en un solo mensaje, p. ej.
+     * un lote de presencia: se copian una vez y ocupan un solo hueco en la
+     * cola de salida de cada destinatario.
+     */
+    public static EncodedMessage join(List<EncodedMessage> parts) {
+        EncodedMessage[] lines = parts.toArray(new EncodedMessage[0]);
+        int length = 0;
+        for (EncodedMessage line : lines) {
+            length += line.bytes.length;
+        }
+        byte[] bytes = new byte[length];
+        int offset = 0;
+        for (EncodedMessage line : lines) {
+            offset = line.copyTo(bytes, offset);
+        }
+        return new EncodedMessage(bytes, length, lines);
+    }
+
+    /**
+     * La misma línea como trama del protocolo binario (ver WireProtocol).
+     * Se calcula una vez por mensaje y la comparten todos los clientes binarios.
+     * Un mensaje de join() da una trama por línea: una trama nunca lleva saltos.
+     */
+    public EncodedMessage asFrame() {
+        EncodedMessage result = frame;
+        if (result == null) {
+            if (lines == null) {
+                byte[] framed = WireProtocol.frame(WireProtocol.OP_LINE, bytes, 0, payloadLength);
+                result = new EncodedMessage(framed, framed.length);
+            } else {
+                EncodedMessage[] frames = new EncodedMessage[lines.length];
+                for (int i = 0; i < lines.length; i++) {
+                    frames[i] = lines[i].asFrame();
+                }
+                result = join(List.of(frames));
+            }
+            frame = result;
+        }
+        return result;
+    }
+
+    /**
+     * Líneas que lleva el mensaje (1 salvo los de join()).
+     */
+    public int lineCount() {
+        return lines == null ? 1 : lines.length;
+    }
+
+    /**
+     * La línea 'index' como mensaje propio (ver lineCount()).
+     */
+    public EncodedMessage line(int index) {
+        return lines == null ? this : lines[index];
+    }
+
+    /**
+     * Vista de solo lectura sobre los bytes compartidos. Cada escritor usa la
+     * suya para llevar su propia posición; los bytes no se copian.
+     */
+    public ByteBuffer buffer() {
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    /**
+     * Escribe la línea completa en un flujo bloqueante.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(bytes);
+    }
+
+    /**
+     * Copia la línea en 'dest' a partir de 'offset' (lote de escritura).
+     * Devuelve la posición siguiente.
+     */
+    public int copyTo(byte[] dest, int offset) {
+        System.arraycopy(bytes, 0, dest, offset, bytes.length);
+        return offset + bytes.length;
+    }
+
+    /**
+     * Tamaño en bytes de la línea codificada.
+     */
+    public int length() {
+        return bytes.length;
+    }
+}
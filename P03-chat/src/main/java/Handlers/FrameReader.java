@@ -0,0 +1,61 @@
+package Handlers;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Lector bloqueante de tramas del protocolo binario (ver WireProtocol).
+ * Ofrece la misma interfaz que BufferedReader.readLine() para que el
+ * bucle de ClientHandler.run() no dependa del modo de la conexión.
+ *
+ * @author sergi
+ */
+public class FrameReader {
+
+    private final DataInputStream in;
+    private boolean handshakeDone = false;
+
+    public FrameReader(InputStream in) {
+        this.in = new DataInputStream(in);
+    }
+
+    /**
+     * Lee el saludo binario (MAGIC + VERSION) que abre la conexión.
+     */
+    public void readHandshake() throws IOException {
+        byte[] handshake = new byte[WireProtocol.HANDSHAKE_LENGTH];
+        in.readFully(handshake);
+        WireProtocol.checkHandshake(handshake);
+        handshakeDone = true;
+    }
+
+    /**
+     * Devuelve el payload de la siguiente trama de línea, o null si el otro
+     * extremo cerró la conexión. Las tramas con otros opcodes se ignoran; una
+     * línea con CR o LF dentro es un error de protocolo (IOException).
+     */
+    public String readLine() throws IOException {
+        if (!handshakeDone) {
+            throw new IllegalStateException("Falta el saludo binario");
+        }
+        while (true) {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                return null;
+            }
+            WireProtocol.checkFrameLength(length);
+            byte opcode = in.readByte();
+            byte[] payload = new byte[length - 1];
+            in.readFully(payload);
+            if (opcode == WireProtocol.OP_LINE) {
+                WireProtocol.checkLinePayload(payload, payload.length);
+                return new String(payload, StandardCharsets.UTF_8);
+            }
+        }
+    }
+}
@@ -39,13 +39,18 @@ public class Handler {
 
     }
 
+    /**
+     * Cierra la conexión. Se puede llamar desde los dos hilos (lectura y
+     * escritura); no termina el proceso, eso lo decide quien creó el handler.
+     */
     public void dismiss() {
+        if (socket == null || socket.isClosed()) {
+            return;
+        }
         try {
-
             socket.close();
-            System.exit(0);
         } catch (IOException ex) {
-            System.getLogger(WriteHandler.class.getName()).log(System.Logger.Level.ERROR, (String) null, ex);
+            System.getLogger(Handler.class.getName()).log(System.Logger.Level.ERROR, (String) null, ex);
         }
     }
 
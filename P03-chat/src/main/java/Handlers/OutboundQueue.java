@@ -0,0 +1,139 @@
+package Handlers;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cola de salida acotada de una conexión.
+ * Muchos hilos encolan (difusiones) y un único escritor la vacía hacia el socket.
+ * Cuando se llena se aplica la política de desbordamiento configurada, así un
+ * cliente que no lee no puede frenar a quien le envía mensajes.
+ *
+ * @author sergi
+ */
+public class OutboundQueue<T> {
+
+    /**
+     * Qué hacer cuando llega un mensaje y la cola está llena.
+     */
+    public enum OverflowPolicy {
+        DROP_OLDEST,    // Descarta el mensaje más antiguo y encola el nuevo (el nuevo si no puede)
+        DROP_NEWEST,    // Descarta el mensaje que llega
+        DISCONNECT      // Desconecta al cliente lento
+    }
+
+    private final Queue<T> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger(0);
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private volatile T marker;          // Marca de control encolada con offerMarker (no se descarta)
+    private volatile boolean markerQueued = false;  // La marca sigue en la cola; se pone con 'this'
+
+    public OutboundQueue(int capacity, OverflowPolicy policy) {
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    /**
+     * Encola un mensaje. Devuelve false solo si la política es DISCONNECT y la
+     * cola está llena: en ese caso quien llama debe cerrar la conexión.
+     */
+    public boolean offer(T message) {
+        if (depth.incrementAndGet() > capacity) {
+            switch (policy) {
+                case DROP_NEWEST -> {
+                    depth.decrementAndGet();
+                    dropped.incrementAndGet();
+                    return true;
+                }
+                case DROP_OLDEST -> {
+                    if (!evictOldest()) {
+                        // No se pudo liberar un hueco: se descarta el que llega
+                        depth.decrementAndGet();
+                        dropped.incrementAndGet();
+                        return true;
+                    }
+                }
+                case DISCONNECT -> {
+                    depth.decrementAndGet();
+                    dropped.incrementAndGet();
+                    return false;
+                }
+            }
+        }
+        queue.add(message);
+        return true;
+    }
+
+    /**
+     * Encola una marca de control para el escritor (p. ej. empezar a
+     * comprimir) fuera de la capacidad y de la política: siempre entra y
+     * DROP_OLDEST no la descarta. Solo una marca a la vez.
+     */
+    public synchronized void offerMarker(T message) {
+        marker = message;
+        markerQueued = true;
+        depth.incrementAndGet();
+        queue.add(message);
+    }
+
+    /**
+     * Descarta la cabeza de la cola (el mensaje más antiguo). Devuelve false
+     * si no libera un hueco: la cola ya estaba vacía o la marca de control
+     * sigue dentro y podría ser la cabeza. Solo pasa con la cola llena, así
+     * que el candado (el mismo que offerMarker) no toca el camino normal.
+     */
+    private synchronized boolean evictOldest() {
+        if (markerQueued || queue.poll() == null) {
+            return false;
+        }
+        depth.decrementAndGet();
+        dropped.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Saca el siguiente mensaje pendiente, o null si no hay (solo el escritor).
+     */
+    public T poll() {
+        T message = queue.poll();
+        if (message != null) {
+            depth.decrementAndGet();
+            if (message == marker) {
+                markerQueued = false;
+            }
+        }
+        return message;
+    }
+
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    public void clear() {
+        while (poll() != null) {
+            // Vacía la cola manteniendo el contador coherente
+        }
+    }
+
+    /**
+     * Mensajes pendientes de escribir (indicador de retraso del cliente).
+     */
+    public int depth() {
+        return depth.get();
+    }
+
+    /**
+     * Mensajes descartados por desbordamiento desde que se abrió la conexión.
+     */
+    public long dropped() {
+        return dropped.get();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+}
@@ -1,41 +1,64 @@
-
 package Handlers;
 
 
-import java.io.EOFException;
 import java.io.IOException;
 import java.net.Socket;
+import java.util.function.Consumer;
 
 /**
+ * Recibe las líneas del otro extremo con lecturas bloqueantes: el hilo duerme
+ * en readLine() mientras no llega nada, así que no gasta CPU. Lanzado en un
+ * hilo virtual, un mismo proceso puede atender muchas conexiones (el JDK
+ * multiplexa las lecturas pendientes sobre pocos hilos del sistema).
  *
  * @author sergi
  */
 public class ReadHandler extends Handler implements Runnable {
 
-    private String messageRx = "_";
+    private final Consumer<String> listener;
 
     public ReadHandler(Socket socket) {
+        this(socket, message -> System.out.println("sevidor: " + message));
+    }
+
+    /**
+     * 'listener' recibe cada línea (sin los /pong del latido ni el testigo
+     * /session, que este cliente no usa para reanudar). Permite usar el
+     * cliente desde otro código, p. ej. un arnés de pruebas.
+     */
+    public ReadHandler(Socket socket, Consumer<String> listener) {
         super(socket);
+        this.listener = listener;
     }
 
     @Override
     public void run() {
         try {
-            do{
-                if (in.ready()) {
-                    messageRx = in.readLine();
-                    System.out.println("sevidor: " + messageRx);
+            String messageRx;
+            while ((messageRx = in.readLine()) != null) {
+                if (ClientHandler.PONG.equals(messageRx)) {
+                    continue; // Respuesta al latido
+                }
+                if (messageRx.startsWith(ClientHandler.SESSION + " ")) {
+                    continue; // Testigo de sesión
+                }
+                listener.accept(messageRx);
+                if (messageRx.equalsIgnoreCase("/exit")) {
+                    break;
                 }
-            }while (!messageRx.equalsIgnoreCase("/exit"));
+            }
+            if (messageRx == null) {
+                System.out.println("Cliente desconectado (EOF)");
+            }
 
-        } catch (EOFException e) {
-            System.out.println("Cliente desconectado (EOF)");
         } catch (IOException ex) {
-            System.getLogger(ReadHandler.class.getName()).log(System.Logger.Level.ERROR, (String) null, ex);
+            if (!socket.isClosed()) { // Si lo cerró dismiss(), no es un error
+                System.getLogger(ReadHandler.class.getName()).log(System.Logger.Level.ERROR, (String) null, ex);
+            }
         } finally {
 
             dismiss();
         }
     }
 
-}
\ No newline at end of file
+}
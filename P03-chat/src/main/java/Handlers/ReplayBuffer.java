@@ -0,0 +1,56 @@
+package Handlers;
+
+/**
+ * Últimas líneas enviadas a una sesión reanudable, numeradas: la primera
+ * después de "/session <token>" es la 1. El cliente no recibe los números;
+ * le basta contar las líneas para saber desde dónde pedir "/resume".
+ *
+ * No es seguro entre hilos por sí solo: ClientHandler lo usa siempre dentro
+ * de synchronized sobre la propia instancia, así numerar y encolar en la
+ * conexión es un solo paso y el orden de la cola coincide con el de los números.
+ *
+ * @author sergi
+ */
+public final class ReplayBuffer {
+
+    private final EncodedMessage[] ring;
+    private long last = 0;                      // Número de la última línea guardada
+
+    public ReplayBuffer(int capacity) {
+        this.ring = new EncodedMessage[capacity];
+    }
+
+    /**
+     * Guarda las líneas del mensaje, una por número (pisa las más antiguas
+     * si está lleno).
+     */
+    public void append(EncodedMessage message) {
+        for (int i = 0; i < message.lineCount(); i++) {
+            last++;
+            ring[(int) (last % ring.length)] = message.line(i);
+        }
+    }
+
+    /**
+     * true si están todas las líneas posteriores a 'seen', así que se puede
+     * reanudar desde ahí sin perder nada.
+     */
+    public boolean covers(long seen) {
+        return seen >= 0 && seen <= last && last - seen <= ring.length;
+    }
+
+    /**
+     * Encola en 'connection' las líneas posteriores a 'seen' (ver covers()).
+     * Devuelve cuántas eran.
+     */
+    public int replay(long seen, ClientConnection connection) {
+        for (long seq = seen + 1; seq <= last; seq++) {
+            connection.send(ring[(int) (seq % ring.length)]);
+        }
+        return (int) (last - seen);
+    }
+
+    public long last() {
+        return last;
+    }
+}
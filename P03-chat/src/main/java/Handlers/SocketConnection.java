@@ -0,0 +1,262 @@
+package Handlers;
+
+import concurrentChat.ChatLog;
+import concurrentChat.ServerMetrics;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Conexión sobre un Socket bloqueante (motores de un hilo por cliente).
+ * send() solo encola en una cola acotada; un escritor propio de la conexión,
+ * lanzado en el ejecutor del motor cuando hay trabajo, la vacía hacia el socket.
+ * Así un cliente con la ventana TCP llena no bloquea al hilo que difunde.
+ *
+ * El escritor junta los mensajes pendientes en un buffer propio y los
+ * escribe con una sola llamada por lote (hasta --write-batch mensajes);
+ * con --write-delay-us espera ese margen a que se complete un lote.
+ * Si el cliente negoció compresión, cada lote sale comprimido con un
+ * SYNC_FLUSH al final (ver StreamCompressor).
+ *
+ * @author sergi
+ */
+public class SocketConnection implements ClientConnection {
+
+    private static final int BATCH_BYTES = 16 * 1024;
+
+    private final Socket socket;
+    private final OutputStream out;
+    private final Executor writerExecutor;
+    private final OutboundQueue<EncodedMessage> outbound;
+    private final ServerMetrics metrics;
+    private final int writeBatch;               // Mensajes por escritura como máximo
+    private final long writeDelayNanos;         // Espera para completar un lote (0 = ninguna)
+    private byte[] batch;                       // Buffer del escritor; se crea al primer envío
+    private StreamCompressor compressor;        // Solo lo usa el escritor (null = sin comprimir)
+
+    // true mientras hay un escritor activo vaciando la cola
+    private final AtomicBoolean writerScheduled = new AtomicBoolean(false);
+    private volatile boolean closeRequested = false;
+    private volatile boolean binary = false;    // Protocolo binario negociado
+    private volatile int compressLevel = 0;     // Nivel pedido con enableCompression()
+
+    public SocketConnection(Socket socket, Executor writerExecutor, int queueCapacity,
+                            OutboundQueue.OverflowPolicy overflowPolicy, int writeBatch, long writeDelayNanos,
+                            ServerMetrics metrics) throws IOException {
+        this.socket = socket;
+        this.metrics = metrics;
+        this.writeBatch = writeBatch;
+        this.writeDelayNanos = writeDelayNanos;
+        this.out = socket.getOutputStream();
+        this.writerExecutor = writerExecutor;
+        this.outbound = new OutboundQueue<>(queueCapacity, overflowPolicy);
+    }
+
+    @Override
+    public void send(EncodedMessage message) {
+        if (closeRequested || socket.isClosed()) {
+            return;
+        }
+        if (binary) {
+            message = message.asFrame();
+        }
+        if (!outbound.offer(message)) {
+            ChatLog.warn("Cliente lento desconectado (cola de salida llena): " + socket.getInetAddress().getHostAddress());
+            closeNow();
+            return;
+        }
+        scheduleWriter();
+    }
+
+    @Override
+    public void enableBinaryFraming() {
+        binary = true;
+    }
+
+    @Override
+    public void enableCompression(int level) {
+        compressLevel = level;
+        // El escritor empieza a comprimir al llegar a la marca, detrás de lo ya encolado;
+        // la marca no pasa por la política de desbordamiento: perderla mezclaría texto y deflate
+        outbound.offerMarker(EncodedMessage.START_COMPRESSION);
+        scheduleWriter();
+    }
+
+    /**
+     * Cierra tras entregar lo que ya estaba encolado.
+     */
+    @Override
+    public void close() {
+        closeRequested = true;
+        scheduleWriter();
+    }
+
+    @Override
+    public InetAddress getInetAddress() {
+        return socket.getInetAddress();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return outbound.depth();
+    }
+
+    @Override
+    public long getDroppedMessages() {
+        return outbound.dropped();
+    }
+
+    // --- Escritor de la conexión ---
+
+    private void scheduleWriter() {
+        if (writerScheduled.compareAndSet(false, true)) {
+            writerExecutor.execute(this::drain);
+        }
+    }
+
+    /**
+     * Vacía la cola hacia el socket. Solo hay un escritor activo a la vez.
+     */
+    private void drain() {
+        while (true) {
+            try {
+                writeBatches();
+            } catch (IOException e) {
+                // El cliente ya no está: el hilo lector detecta la desconexión
+                outbound.clear();
+            }
+            if (closeRequested) {
+                closeNow();
+                if (compressor != null) {
+                    compressor.end();
+                    compressor = null;
+                }
+                return;
+            }
+            writerScheduled.set(false);
+            // Si llegó algo (o un cierre) entre el último poll y el set(false), este escritor sigue
+            if ((outbound.isEmpty() && !closeRequested) || !writerScheduled.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Copia los mensajes encolados al buffer del escritor y lo escribe de una
+     * vez cuando se llena, cuando hay --write-batch mensajes o cuando la cola
+     * se queda vacía (pasado --write-delay-us desde el primer mensaje del lote).
+     */
+    private void writeBatches() throws IOException {
+        if (batch == null) {
+            batch = new byte[BATCH_BYTES];
+        }
+        int used = 0;
+        int count = 0;
+        long batchDeadline = 0;
+        while (true) {
+            EncodedMessage message = outbound.poll();
+            if (message == null && count > 0 && writeDelayNanos > 0) {
+                message = awaitMore(batchDeadline);
+            }
+            if (message == null) {
+                break;
+            }
+            if (message == EncodedMessage.START_COMPRESSION) {
+                // Lo anterior sale sin comprimir; lo siguiente, comprimido
+                flushBatch(used, count);
+                used = 0;
+                count = 0;
+                compressor = new StreamCompressor(compressLevel);
+                metrics.compressionStarted();
+                continue;
+            }
+            if (message.length() > batch.length - used) {
+                flushBatch(used, count);
+                used = 0;
+                count = 0;
+                if (message.length() > batch.length) {
+                    // No cabe en el buffer: va solo
+                    writeAlone(message);
+                    continue;
+                }
+            }
+            if (count == 0) {
+                batchDeadline = System.nanoTime() + writeDelayNanos;
+            }
+            used = message.copyTo(batch, used);
+            if (++count >= writeBatch) {
+                flushBatch(used, count);
+                used = 0;
+                count = 0;
+            }
+        }
+        flushBatch(used, count);
+    }
+
+    /**
+     * Espera (hasta 'deadline') a que llegue otro mensaje para el lote en curso.
+     */
+    private EncodedMessage awaitMore(long deadline) {
+        long wait;
+        while (!closeRequested && (wait = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(this, Math.min(wait, 50_000));
+            EncodedMessage message = outbound.poll();
+            if (message != null) {
+                return message;
+            }
+        }
+        return null;
+    }
+
+    private void flushBatch(int used, int count) throws IOException {
+        if (count == 0) {
+            return;
+        }
+        if (compressor != null) {
+            compressor.add(ByteBuffer.wrap(batch, 0, used));
+            writeCompressed();
+            return;
+        }
+        out.write(batch, 0, used);
+        metrics.bytesWritten(used);
+        metrics.socketWrite();
+    }
+
+    private void writeAlone(EncodedMessage message) throws IOException {
+        if (compressor != null) {
+            compressor.add(message.buffer());
+            writeCompressed();
+            return;
+        }
+        message.writeTo(out);
+        metrics.bytesWritten(message.length());
+        metrics.socketWrite();
+    }
+
+    /**
+     * Cierra el lote comprimido (SYNC_FLUSH) y lo escribe de una vez.
+     */
+    private void writeCompressed() throws IOException {
+        long raw = compressor.pendingInput();
+        ByteBuffer compressed = compressor.flush();
+        out.write(compressed.array(), 0, compressed.limit());
+        metrics.bytesWritten(compressed.limit());
+        metrics.socketWrite();
+        metrics.compressed(raw, compressed.limit());
+    }
+
+    private void closeNow() {
+        closeRequested = true;
+        try {
+            socket.close();
+        } catch (IOException e) {
+            System.getLogger(SocketConnection.class.getName()).log(System.Logger.Level.ERROR, "Error al cerrar socket", e);
+        }
+        outbound.clear();
+    }
+}
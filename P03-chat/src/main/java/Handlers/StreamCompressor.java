@@ -0,0 +1,178 @@
+package Handlers;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compresión deflate del flujo de salida de una conexión (opcional, la pide
+ * el cliente con /compress antes de dar su nombre).
+ *
+ * Un único contexto deflate por conexión dura toda la sesión, así cada
+ * línea puede referirse a las anteriores (nombres, avisos repetidos). Además
+ * los dos extremos arrancan con el mismo diccionario de frases habituales del
+ * chat, para que incluso los primeros mensajes salgan comprimidos.
+ *
+ * El escritor añade los mensajes de un lote con add() y al escribirlo llama a
+ * flush(): un SYNC_FLUSH por lote, no por mensaje, que deja todo lo anterior
+ * decodificable en el cliente sin reiniciar el contexto.
+ *
+ * Formato: deflate sin cabecera (raw, RFC 1951) con DICTIONARY precargado.
+ *
+ * @author sergi
+ */
+public final class StreamCompressor {
+
+    /**
+     * Línea del cliente que pide la compresión (antes del nombre de usuario).
+     */
+    public static final String REQUEST = "/compress";
+
+    /**
+     * Respuesta del servidor: es la última línea sin comprimir.
+     */
+    public static final String ACK = "/compress deflate";
+
+    // Frases frecuentes, de menos a más habituales: deflate alcanza antes
+    // (distancias más cortas) lo que está al final del diccionario.
+    // Cambiarlo rompe la compatibilidad con los clientes existentes.
+    private static final String[] PHRASES = {
+        " --- LISTA DE COMANDOS DISPONIBLES ---",
+        help("/help", "Muestra esta lista de ayuda."),
+        help("/changename [nuevo]", "Cambia tu nombre de usuario."),
+        help("/w [usuario] [msg]", "Envía un mensaje privado a [usuario]."),
+        help("/ignore [usuario]", "Oculta todos los mensajes de [usuario]."),
+        help("/unignore [usuario]", "Vuelve a mostrar los mensajes de [usuario]."),
+        help("/join [sala]", "Entra en [sala] (la crea si no existe)."),
+        help("/leave", "Sale de la sala y vuelve al chat global."),
+        help("/rooms", "Lista las salas abiertas."),
+        help("/history [n]", "Muestra los últimos [n] mensajes de tu sala o del chat global."),
+        help("/nodes", "Muestra los nodos del clúster y sus usuarios."),
+        help("/ping", "Comprueba la conexión; el servidor responde /pong."),
+        help("/exit", "Te desconecta del chat."),
+        help("(cualquier texto)", "Envía un mensaje a tu sala o, fuera de salas, a todos."),
+        "-----------------------------------------",
+        " --- MENSAJES ANTERIORES ---",
+        "No tienes permisos para usar este comando.",
+        "Vas demasiado rápido: tus mensajes se descartan hasta que bajes el ritmo.",
+        " Has entrado en la sala '",
+        " miembros). Usa /leave para volver al chat global.",
+        " Has salido de la sala '",
+        "'. Vuelves al chat global.",
+        " Tu nombre ha sido cambiado a: ",
+        " Error: Usuario '",
+        "' no encontrado.",
+        "Error: El nombre '",
+        "' ya está en uso.",
+        " ¡Bienvenido ",
+        "! Escribe /help para ver los comandos.",
+        " ahora es ",
+        " ha abandonado el chat.",
+        " se ha unido al chat.",
+        "(Mensaje a ",
+        "(Privado de ",
+        "): ",
+        ClientHandler.PONG,
+    };
+
+    /**
+     * Diccionario compartido por servidor y cliente.
+     */
+    public static final byte[] DICTIONARY = String.join("\n", PHRASES).getBytes(StandardCharsets.UTF_8);
+
+    private static final int INITIAL_OUTPUT_BYTES = 4 * 1024;
+
+    private final Deflater deflater;
+    private byte[] output = new byte[INITIAL_OUTPUT_BYTES];
+    private int used = 0;                       // Bytes comprimidos del lote en curso
+    private long bytesIn = 0;                   // Bytes sin comprimir del lote en curso
+
+    /**
+     * @param level nivel de deflate, de 1 (más rápido) a 9 (más compresión)
+     */
+    public StreamCompressor(int level) {
+        this.deflater = new Deflater(level, true);
+        this.deflater.setDictionary(DICTIONARY);
+    }
+
+    /**
+     * Comprime 'input' entero (sin vaciar el contexto) y lo añade al lote en curso.
+     */
+    public void add(ByteBuffer input) {
+        bytesIn += input.remaining();
+        deflater.setInput(input);
+        while (!deflater.needsInput()) {
+            ensureSpace();
+            used += deflater.deflate(output, used, output.length - used, Deflater.NO_FLUSH);
+        }
+    }
+
+    /**
+     * Cierra el lote con un SYNC_FLUSH y devuelve sus bytes comprimidos. El
+     * buffer es interno: hay que escribirlo entero antes del siguiente add().
+     */
+    public ByteBuffer flush() {
+        int written;
+        do {
+            ensureSpace();
+            written = deflater.deflate(output, used, output.length - used, Deflater.SYNC_FLUSH);
+            used += written;
+        } while (used == output.length); // Salida llena: puede quedar más
+        ByteBuffer result = ByteBuffer.wrap(output, 0, used);
+        used = 0;
+        bytesIn = 0;
+        return result;
+    }
+
+    /**
+     * Bytes sin comprimir añadidos desde el último flush().
+     */
+    public long pendingInput() {
+        return bytesIn;
+    }
+
+    /**
+     * Libera la memoria nativa del contexto. No se puede usar después.
+     */
+    public void end() {
+        deflater.end();
+    }
+
+    private void ensureSpace() {
+        if (used == output.length) {
+            byte[] bigger = new byte[output.length * 2];
+            System.arraycopy(output, 0, bigger, 0, used);
+            output = bigger;
+        }
+    }
+
+    // Mismo formato que las líneas de /help
+    private static String help(String usage, String description) {
+        return String.format(" %-22s- %s", usage, description);
+    }
+
+    // --- LADO DEL CLIENTE ---
+
+    /**
+     * Envuelve la entrada de un cliente a partir de la respuesta ACK. 'in'
+     * debe ser el mismo flujo (con su buffer) del que se leyó ACK, para no
+     * perder bytes comprimidos que ya se hubieran leído.
+     */
+    public static InputStream inflating(InputStream source) {
+        Inflater inflater = new Inflater(true);
+        inflater.setDictionary(DICTIONARY);
+        return new InflaterInputStream(source, inflater) {
+            // La versión heredada responde 1 hasta el final del flujo y un
+            // InputStreamReader, al creerlo, se bloquea esperando el siguiente
+            // lote en vez de devolver la línea que ya tiene. Aunque queden
+            // bytes comprimidos, pueden ser solo la marca del SYNC_FLUSH
+            @Override
+            public int available() {
+                return 0;
+            }
+        };
+    }
+}
@@ -0,0 +1,109 @@
+package Handlers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Protocolo binario opcional, negociado por conexión.
+ *
+ * Un cliente binario abre la conexión enviando MAGIC + VERSION; un cliente de
+ * texto empieza por su nombre de usuario, que nunca contiene el byte 0, así el
+ * servidor distingue ambos con el primer byte. El saludo del servidor
+ * ("Conexión establecida...") sale siempre en texto, antes de saber el modo:
+ * el cliente binario descarta esa primera línea.
+ *
+ * Después, en ambos sentidos, cada mensaje es una trama:
+ *   [longitud: int32 big-endian][opcode: 1 byte][payload: longitud - 1 bytes]
+ * donde la longitud cuenta el opcode más el payload.
+ *
+ * @author sergi
+ */
+public final class WireProtocol {
+
+    public static final byte[] MAGIC = {0x00, 'C', 'H', 'T'};
+    public static final byte VERSION = 1;
+    public static final int HANDSHAKE_LENGTH = MAGIC.length + 1;
+
+    // Cabecera: longitud (4) + opcode (1)
+    public static final int HEADER_LENGTH = 5;
+    public static final int MAX_FRAME_LENGTH = 64 * 1024;
+
+    // --- Opcodes ---
+    public static final byte OP_LINE = 1;   // Una línea de chat o comando, igual que en modo texto
+
+    private WireProtocol() {
+    }
+
+    /**
+     * true si el primer byte recibido indica una conexión binaria.
+     */
+    public static boolean isBinaryStart(byte firstByte) {
+        return firstByte == MAGIC[0];
+    }
+
+    /**
+     * Comprueba el saludo binario (MAGIC + VERSION) recibido del cliente.
+     */
+    public static void checkHandshake(byte[] handshake) throws IOException {
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (handshake[i] != MAGIC[i]) {
+                throw new IOException("Saludo binario inválido");
+            }
+        }
+        if (handshake[MAGIC.length] != VERSION) {
+            throw new IOException("Versión de protocolo no soportada: " + handshake[MAGIC.length]);
+        }
+    }
+
+    /**
+     * Valida la longitud leída de una cabecera.
+     */
+    public static void checkFrameLength(int length) throws IOException {
+        if (length < 1 || length > MAX_FRAME_LENGTH) {
+            throw new IOException("Longitud de trama inválida: " + length);
+        }
+    }
+
+    /**
+     * Valida el payload de una trama OP_LINE: es una sola línea, sin CR ni LF.
+     * Se reenvía tal cual a los clientes de texto, así que un salto de línea
+     * dentro inyectaría líneas falsas (avisos del sistema, privados) y
+     * descuadraría la numeración de las sesiones reanudables. En UTF-8 esos
+     * bytes solo aparecen como esos caracteres, así que basta buscar bytes.
+     */
+    public static void checkLinePayload(byte[] payload, int length) throws IOException {
+        for (int i = 0; i < length; i++) {
+            if (payload[i] == '\n' || payload[i] == '\r') {
+                throw new IOException("Trama de línea con un salto de línea dentro");
+            }
+        }
+    }
+
+    /**
+     * Construye una trama completa con 'length' bytes de 'payload'.
+     */
+    public static byte[] frame(byte opcode, byte[] payload, int offset, int length) {
+        byte[] frame = new byte[HEADER_LENGTH + length];
+        int frameLength = length + 1;
+        frame[0] = (byte) (frameLength >>> 24);
+        frame[1] = (byte) (frameLength >>> 16);
+        frame[2] = (byte) (frameLength >>> 8);
+        frame[3] = (byte) frameLength;
+        frame[4] = opcode;
+        System.arraycopy(payload, offset, frame, HEADER_LENGTH, length);
+        return frame;
+    }
+
+    // --- Ayudas para clientes binarios ---
+
+    public static void writeHandshake(OutputStream out) throws IOException {
+        out.write(MAGIC);
+        out.write(VERSION);
+    }
+
+    public static void writeLine(OutputStream out, String line) throws IOException {
+        byte[] payload = line.getBytes(StandardCharsets.UTF_8);
+        out.write(frame(OP_LINE, payload, 0, payload.length));
+    }
+}
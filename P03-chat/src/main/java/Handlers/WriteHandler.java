@@ -21,15 +21,31 @@ public class WriteHandler extends Handler implements Runnable {
     public void run() {
         Scanner messageScanner = new Scanner(System.in);
 
-        while (out!= null && !messageTx.equalsIgnoreCase("/exit")) {
+        while (out!= null && !socket.isClosed() && !messageTx.equalsIgnoreCase("/exit")) {
 
             messageTx = messageScanner.nextLine();
-            out.print(messageTx + "\r\n");
+            synchronized (out) {
+                out.print(messageTx + "\r\n");
+                out.flush();
+            }
             System.out.println( "me: " + messageTx );
-            out.flush();
         }
         System.out.println("com.uacam.p03_chat.WriteHandler.run()");
         dismiss();
 
     }
+
+    /**
+     * Envía un /ping para que el servidor no cierre la conexión por inactividad.
+     * Lo llama el hilo de latido; comparte el PrintWriter con run().
+     */
+    public void sendHeartbeat() {
+        if (out == null) {
+            return;
+        }
+        synchronized (out) {
+            out.print("/ping\r\n");
+            out.flush();
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,274 @@
+package concurrentChat;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lista de bloqueo por rangos CIDR (IPv4 e IPv6) con caducidad opcional.
+ *
+ * Guarda los prefijos en un trie binario por cada familia: cada nivel es un
+ * bit de la dirección y un nodo marcado bloquea todo lo que cuelga de él.
+ * Comprobar una dirección recorre como mucho 32 o 128 nodos, haya los
+ * bloqueos que haya, y en IPv4 no reserva memoria.
+ *
+ * Las lecturas no usan candados (hijos y caducidad son volatile); los
+ * cambios, que son raros, se serializan con synchronized.
+ *
+ * @author sergi
+ */
+public class BlockList {
+
+    /**
+     * Caducidad de un bloqueo permanente.
+     */
+    public static final long PERMANENT = Long.MAX_VALUE;
+
+    private static final class Node {
+        private volatile Node zero;
+        private volatile Node one;
+        private volatile long expiresAt = 0;    // 0 = este prefijo no está bloqueado (ms de época)
+    }
+
+    /**
+     * Un bloqueo vigente: prefijo en texto ("10.0.0.0/8") y caducidad.
+     */
+    public static final class Entry {
+        private final String prefix;
+        private final long expiresAt;
+
+        private Entry(String prefix, long expiresAt) {
+            this.prefix = prefix;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getPrefix() { return prefix; }
+        public long getExpiresAt() { return expiresAt; }
+    }
+
+    private final Node ipv4 = new Node();
+    private final Node ipv6 = new Node();
+
+    // --- CONSULTA (hilo de aceptación) ---
+
+    /**
+     * true si algún bloqueo vigente cubre 'address'.
+     */
+    public boolean isBlocked(InetAddress address) {
+        if (address instanceof Inet4Address) {
+            // Inet4Address.hashCode() es la propia dirección: se evita la copia de getAddress()
+            int bits = address.hashCode();
+            Node node = ipv4;
+            for (int i = 31; ; i--) {
+                if (isActive(node.expiresAt)) {
+                    return true;
+                }
+                if (i < 0) {
+                    return false;
+                }
+                node = ((bits >>> i) & 1) == 0 ? node.zero : node.one;
+                if (node == null) {
+                    return false;
+                }
+            }
+        }
+        byte[] bytes = address.getAddress();
+        Node node = ipv6;
+        for (int i = 0; ; i++) {
+            if (isActive(node.expiresAt)) {
+                return true;
+            }
+            if (i == bytes.length * 8) {
+                return false;
+            }
+            node = bit(bytes, i) == 0 ? node.zero : node.one;
+            if (node == null) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Comprueba una IP en texto (solo literales, nunca resuelve nombres).
+     */
+    public boolean isBlocked(String ip) {
+        try {
+            return isBlocked(parseAddress(ip));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    // --- CAMBIOS ---
+
+    /**
+     * Bloquea un prefijo ("192.168.1.0/24", "2001:db8::/32" o una IP sola)
+     * hasta 'expiresAt' (ms de época, o PERMANENT). Si ya estaba bloqueado,
+     * se queda con la caducidad más lejana. Devuelve el prefijo normalizado.
+     *
+     * @throws IllegalArgumentException si el texto no es una IP o prefijo válido
+     */
+    public synchronized String block(String cidr, long expiresAt) {
+        Prefix prefix = Prefix.parse(cidr);
+        Node node = prefix.ipv4 ? ipv4 : ipv6;
+        for (int i = 0; i < prefix.length; i++) {
+            if (bit(prefix.bytes, i) == 0) {
+                if (node.zero == null) {
+                    node.zero = new Node();
+                }
+                node = node.zero;
+            } else {
+                if (node.one == null) {
+                    node.one = new Node();
+                }
+                node = node.one;
+            }
+        }
+        node.expiresAt = Math.max(node.expiresAt, expiresAt);
+        return prefix.toString();
+    }
+
+    /**
+     * Bloqueo permanente de un prefijo.
+     */
+    public String block(String cidr) {
+        return block(cidr, PERMANENT);
+    }
+
+    /**
+     * Quita el bloqueo de exactamente ese prefijo. Devuelve false si no existía.
+     */
+    public synchronized boolean unblock(String cidr) {
+        Prefix prefix = Prefix.parse(cidr);
+        Node node = prefix.ipv4 ? ipv4 : ipv6;
+        for (int i = 0; i < prefix.length && node != null; i++) {
+            node = bit(prefix.bytes, i) == 0 ? node.zero : node.one;
+        }
+        if (node == null || node.expiresAt == 0) {
+            return false;
+        }
+        boolean wasActive = isActive(node.expiresAt);
+        node.expiresAt = 0;
+        return wasActive;
+    }
+
+    /**
+     * Bloqueos vigentes (para /blocklist y para copiarlos al registro persistente).
+     */
+    public synchronized List<Entry> snapshot() {
+        List<Entry> entries = new ArrayList<>();
+        collect(ipv4, new byte[4], 0, true, entries);
+        collect(ipv6, new byte[16], 0, false, entries);
+        return entries;
+    }
+
+    private void collect(Node node, byte[] bytes, int depth, boolean v4, List<Entry> entries) {
+        long expiresAt = node.expiresAt;
+        if (isActive(expiresAt)) {
+            entries.add(new Entry(new Prefix(v4, bytes.clone(), depth).toString(), expiresAt));
+        } else if (expiresAt != 0) {
+            node.expiresAt = 0; // Caducado: se limpia de paso
+        }
+        if (node.zero != null) {
+            collect(node.zero, bytes, depth + 1, v4, entries);
+        }
+        if (node.one != null) {
+            bytes[depth / 8] |= (byte) (0x80 >>> (depth % 8));
+            collect(node.one, bytes, depth + 1, v4, entries);
+            bytes[depth / 8] &= (byte) ~(0x80 >>> (depth % 8));
+        }
+    }
+
+    /**
+     * true si el prefijo 'cidr' cubre 'address' (sin tocar la lista).
+     *
+     * @throws IllegalArgumentException si el texto no es una IP o prefijo válido
+     */
+    public static boolean covers(String cidr, InetAddress address) {
+        Prefix prefix = Prefix.parse(cidr);
+        byte[] bytes = address.getAddress();
+        if (bytes.length != prefix.bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bit(bytes, i) != bit(prefix.bytes, i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isActive(long expiresAt) {
+        return expiresAt != 0 && (expiresAt == PERMANENT || expiresAt > System.currentTimeMillis());
+    }
+
+    private static int bit(byte[] bytes, int index) {
+        return (bytes[index >>> 3] >>> (7 - (index & 7))) & 1;
+    }
+
+    /**
+     * Convierte un literal IPv4/IPv6 sin consultar nunca al DNS.
+     */
+    static InetAddress parseAddress(String text) {
+        String ip = text.trim();
+        boolean v4 = ip.matches("\\d{1,3}(\\.\\d{1,3}){3}");
+        boolean v6 = ip.indexOf(':') >= 0 && ip.matches("[0-9A-Fa-f:.%\\[\\]]+");
+        if (!v4 && !v6) {
+            throw new IllegalArgumentException("No es una dirección IP: " + text);
+        }
+        try {
+            return InetAddress.getByName(ip); // Con un literal no hay resolución
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("No es una dirección IP: " + text);
+        }
+    }
+
+    /**
+     * Un prefijo CIDR ya normalizado (bits por debajo de la longitud a cero).
+     */
+    private static final class Prefix {
+        private final boolean ipv4;
+        private final byte[] bytes;
+        private final int length;
+
+        private Prefix(boolean ipv4, byte[] bytes, int length) {
+            this.ipv4 = ipv4;
+            this.bytes = bytes;
+            this.length = length;
+        }
+
+        private static Prefix parse(String cidr) {
+            int slash = cidr.indexOf('/');
+            InetAddress address = parseAddress(slash < 0 ? cidr : cidr.substring(0, slash));
+            byte[] bytes = address.getAddress();
+            int max = bytes.length * 8;
+            int length = max;
+            if (slash >= 0) {
+                try {
+                    length = Integer.parseInt(cidr.substring(slash + 1).trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Prefijo inválido: " + cidr);
+                }
+                if (length < 0 || length > max) {
+                    throw new IllegalArgumentException("Prefijo inválido: " + cidr);
+                }
+            }
+            for (int i = length; i < max; i++) {
+                bytes[i >>> 3] &= (byte) ~(0x80 >>> (i & 7));
+            }
+            return new Prefix(address instanceof Inet4Address, bytes, length);
+        }
+
+        @Override
+        public String toString() {
+            try {
+                String host = InetAddress.getByAddress(bytes).getHostAddress();
+                return length == bytes.length * 8 ? host : host + "/" + length;
+            } catch (UnknownHostException e) {
+                throw new IllegalStateException(e); // No ocurre: longitud 4 o 16
+            }
+        }
+    }
+}
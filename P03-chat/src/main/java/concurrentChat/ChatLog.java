@@ -0,0 +1,279 @@
+package concurrentChat;
+
+import Handlers.OutboundQueue;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Log asíncrono del servidor. Los hilos de clientes y el de aceptación solo
+ * encolan la línea (cola sin candados y acotada); un único hilo escritor
+ * la formatea y escribe por lotes en un fichero que rota por tamaño.
+ * Si la cola se llena la línea se descarta y se cuenta: el log nunca frena el chat.
+ *
+ * Hasta que se llama a configure() no se registra nada (benchmarks, herramientas).
+ *
+ * @author sergi
+ */
+public final class ChatLog {
+
+    /**
+     * Niveles de log, de más a menos detallado.
+     */
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR, OFF
+    }
+
+    private static final int BATCH_SIZE = 256;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final DateTimeFormatter TIME_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS", Locale.ROOT).withZone(ZoneId.systemDefault());
+
+    /**
+     * Una línea pendiente de escribir.
+     */
+    private static final class Entry {
+        private final long time;
+        private final Level level;
+        private final String message;
+        private final Throwable error;
+
+        private Entry(long time, Level level, String message, Throwable error) {
+            this.time = time;
+            this.level = level;
+            this.message = message;
+            this.error = error;
+        }
+    }
+
+    private static volatile Level threshold = Level.OFF;
+    private static volatile OutboundQueue<Entry> queue;
+    private static volatile boolean running = false;
+    private static Thread writerThread;
+
+    // --- Estado del hilo escritor ---
+    private static Path file;                   // null = consola (System.err)
+    private static long maxBytes;
+    private static int maxFiles;
+    private static Writer out;
+    private static long written;                // Bytes (UTF-8) del fichero actual
+    private static long reportedDrops;
+
+    private ChatLog() {
+    }
+
+    /**
+     * Arranca el escritor según --server-log, --server-log-level,
+     * --server-log-mb, --server-log-files y --server-log-queue.
+     */
+    public static synchronized void configure(ServerConfig config) throws IOException {
+        if (running) {
+            return;
+        }
+        String target = config.logFile();
+        file = target.isEmpty() ? null : Paths.get(target);
+        maxBytes = config.logFileMegabytes() * 1024L * 1024L;
+        maxFiles = config.logFiles();
+        openWriter();
+
+        queue = new OutboundQueue<>(config.logQueueCapacity(), OutboundQueue.OverflowPolicy.DROP_NEWEST);
+        threshold = config.logLevel();
+        running = true;
+        writerThread = new Thread(ChatLog::writeLoop, "chat-logger");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Escribe lo pendiente y detiene el escritor.
+     */
+    public static synchronized void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(threshold) >= 0 && level != Level.OFF;
+    }
+
+    // --- Registro (cualquier hilo) ---
+
+    public static void debug(String message) {
+        log(Level.DEBUG, message, null);
+    }
+
+    public static void info(String message) {
+        log(Level.INFO, message, null);
+    }
+
+    public static void warn(String message) {
+        log(Level.WARN, message, null);
+    }
+
+    public static void error(String message, Throwable error) {
+        log(Level.ERROR, message, error);
+    }
+
+    public static void log(Level level, String message, Throwable error) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        OutboundQueue<Entry> current = queue;
+        if (current != null) {
+            current.offer(new Entry(System.currentTimeMillis(), level, message, error));
+        }
+    }
+
+    /**
+     * Líneas descartadas porque la cola estaba llena.
+     */
+    public static long dropped() {
+        OutboundQueue<Entry> current = queue;
+        return current == null ? 0 : current.dropped();
+    }
+
+    // --- HILO ESCRITOR ---
+
+    private static void writeLoop() {
+        StringBuilder line = new StringBuilder(256);
+        while (true) {
+            int batch = 0;
+            Entry entry;
+            try {
+                while (batch < BATCH_SIZE && (entry = queue.poll()) != null) {
+                    line.setLength(0);
+                    format(line, entry.time, entry.level, entry.message, entry.error);
+                    write(line);
+                    batch++;
+                }
+                long drops = queue.dropped();
+                if (drops > reportedDrops) {
+                    line.setLength(0);
+                    format(line, System.currentTimeMillis(), Level.WARN,
+                            (drops - reportedDrops) + " líneas de log descartadas (cola llena)", null);
+                    write(line);
+                    reportedDrops = drops;
+                    batch++;
+                }
+                if (batch > 0) {
+                    out.flush(); // Un flush por lote
+                }
+            } catch (IOException e) {
+                System.getLogger(ChatLog.class.getName()).log(System.Logger.Level.ERROR, "Error al escribir el log", e);
+            }
+            if (batch == 0) {
+                if (!running) {
+                    break;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+        try {
+            out.flush();
+            if (file != null) {
+                out.close();
+            }
+        } catch (IOException e) {
+            System.getLogger(ChatLog.class.getName()).log(System.Logger.Level.ERROR, "Error al cerrar el log", e);
+        }
+    }
+
+    private static void format(StringBuilder line, long time, Level level, String message, Throwable error) {
+        TIME_FORMAT.formatTo(Instant.ofEpochMilli(time), line);
+        line.append(' ').append(level).append(' ').append(message);
+        if (error != null) {
+            line.append(" - ").append(error);
+        }
+        line.append(System.lineSeparator());
+    }
+
+    private static void write(CharSequence line) throws IOException {
+        out.append(line);
+        written += utf8Length(line);
+        if (file != null && written >= maxBytes) {
+            rotate();
+        }
+    }
+
+    /**
+     * Bytes que ocupa 'line' en UTF-8, sin codificarla: el límite de
+     * --server-log-mb es de bytes y un carácter puede ocupar hasta cuatro.
+     */
+    private static int utf8Length(CharSequence line) {
+        int bytes = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < line.length() && Character.isLowSurrogate(line.charAt(i + 1))) {
+                bytes += 4;     // Par suplente: un solo carácter
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                bytes += 1;     // Suplente suelto: el codificador escribe '?'
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * chat.log -> chat.log.1 -> chat.log.2 ... (se conservan --server-log-files ficheros).
+     */
+    private static void rotate() throws IOException {
+        out.close();
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            Path older = Paths.get(file + "." + i);
+            if (Files.exists(older)) {
+                if (i + 1 >= maxFiles) {
+                    Files.delete(older);
+                } else {
+                    Files.move(older, Paths.get(file + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+        if (maxFiles > 1) {
+            Files.move(file, Paths.get(file + ".1"), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.delete(file);
+        }
+        openWriter();
+    }
+
+    private static void openWriter() throws IOException {
+        if (file == null) {
+            out = new BufferedWriter(new OutputStreamWriter(System.err, StandardCharsets.UTF_8));
+            written = 0;
+            return;
+        }
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        out = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        written = Files.size(file);
+    }
+}
@@ -2,60 +2,143 @@ package concurrentChat;
 
 import Handlers.ClientHandler;
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketException;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Clase principal del servidor de chat.
+ * Uso: ChatServer [--engine=nio|blocking|virtual] [--port=8080] [--workers=N]
+ *                  [--outbound-capacity=1024] [--overflow=disconnect|drop-oldest|drop-newest]
+ *                  [--log-dir=chat-log] [--log-segment-mb=16] [--log-retention=8] [--log-flush-ms=10]
+ *                  [--log-queue=65536] [--metrics-port=9464] [--server-log=chat-server.log] [--server-log-level=info]
+ *                  [--server-log-mb=10] [--server-log-files=5] [--server-log-queue=8192]
+ *                  [--idle-timeout=90] [--drain-seconds=5] [--compress-level=1]
+ *                  [--resume-grace=0] [--resume-buffer=256] [--presence-batch-ms=500] [--who-page-size=50]
+ *                  [--node-id=1 --cluster-port=9101 --peers=2@127.0.0.1:9102,...]
  * @author sergi
  */
 public class ChatServer {
-    private static final int PORT = 8080;
 
     // Almacena todos los manejadores de clientes conectados (thread-safe).
     private static Set<ClientHandler> clients = ConcurrentHashMap.newKeySet();
 
-    // Almacena las IPs bloqueadas (thread-safe).
-    private static Set<String> blockList = ConcurrentHashMap.newKeySet();
+    // Índice de nombres de usuario en uso para búsquedas O(1) (thread-safe).
+    // Se crea al leer la configuración: los IDs de usuario llevan el --node-id.
+    private static UserRegistry users;
+
+    // IPs y rangos CIDR bloqueados (lecturas sin candados).
+    private static BlockList blockList = new BlockList();
 
     public static void main(String[] args) {
-        // Crea un pool de hilos para manejar clientes de forma eficiente.
-        ExecutorService pool = Executors.newCachedThreadPool();
+        ServerConfig config;
+        try {
+            config = ServerConfig.fromArgs(args);
+            config.peers(); // Valida la lista de nodos antes de arrancar nada
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return;
+        }
+
+        try {
+            // Log del servidor en segundo plano: los hilos de clientes nunca escriben en consola
+            ChatLog.configure(config);
+            if (config.getInt("resume-grace", 0) > 0 && config.resumeGraceSeconds() == 0) {
+                ChatLog.warn("--resume-grace no se aplica con --overflow=" + config.get("overflow", "")
+                        + ": las sesiones no serán reanudables");
+            }
+
+            // Reconstruye la lista de bloqueo y el historial antes de aceptar clientes
+            MessageLog log = MessageLog.open(config);
+            users = new UserRegistry(config.nodeId());
+            ServerContext context = new ServerContext(config, clients, users, blockList, log);
+            long records = log.recover(context.getHistory(), blockList);
+            log.start();
+            context.getCluster().start(context);
+
+            // SIGTERM/SIGINT drenan el servidor; el drenaje cierra también ambos logs
+            Runtime.getRuntime().addShutdownHook(context.getShutdown().hook());
+            if (log.isEnabled()) {
+                System.err.println("Registro: " + records + " entradas recuperadas de " + config.logDirectory());
+            }
+            if (config.metricsPort() > 0) {
+                MetricsEndpoint metricsEndpoint = new MetricsEndpoint(context);
+                metricsEndpoint.start(config.metricsPort());
+                context.getShutdown().setMetricsEndpoint(metricsEndpoint);
+            }
+
+            switch (config.engine()) {
+                // Crea un pool de hilos para manejar clientes de forma eficiente.
+                case BLOCKING -> runBlocking(context, Executors.newCachedThreadPool());
+                // Un hilo virtual por cliente: el mismo código bloqueante sin un hilo del SO por conexión.
+                case VIRTUAL -> runBlocking(context, Executors.newVirtualThreadPerTaskExecutor());
+                case NIO -> new NioChatServer(context).start();
+            }
+        } catch (IOException ex) {
+            System.getLogger(ChatServer.class.getName()).log(System.Logger.Level.ERROR, (String) null, ex);
+        }
+    }
 
-        try (ServerSocket server = new ServerSocket(PORT)){
+    /**
+     * Motor bloqueante: cada cliente ocupa una tarea del ejecutor
+     * (hilo de plataforma del pool original o hilo virtual).
+     */
+    private static void runBlocking(ServerContext context, ExecutorService pool) throws IOException {
+        int port = context.getConfig().port();
 
-            System.err.println("Server active in localhost:"+ PORT);
+        GracefulShutdown shutdown = context.getShutdown();
+        shutdown.setWorkers(timeoutMillis -> {
+            pool.shutdown();
+            if (!pool.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                pool.shutdownNow();
+            }
+        });
+
+        try (ServerSocket server = new ServerSocket(port)){
+            shutdown.setAcceptor(server);
 
-            // Bucle infinito para aceptar nuevas conexiones de clientes.
-            while (true) {
-                System.out.println("Esperando conexión...");
-                Socket clientSocket = server.accept();
-                String clientIP = clientSocket.getInetAddress().getHostAddress();
+            System.err.println("Server active in localhost:"+ port + " (" + context.getConfig().engine() + ")");
+
+            // Acepta nuevas conexiones de clientes hasta el apagado ordenado.
+            while (!shutdown.isDraining()) {
+                Socket clientSocket;
+                try {
+                    clientSocket = server.accept();
+                } catch (SocketException e) {
+                    if (shutdown.isDraining()) {
+                        return; // Cerrado por el apagado ordenado
+                    }
+                    throw e;
+                }
+                InetAddress clientAddress = clientSocket.getInetAddress();
 
                 // Verifica si la IP del cliente está en la lista de bloqueo.
-                if (blockList.contains(clientIP)) {
-                    System.err.println("Conexión rechazada: IP bloqueada -> " + clientIP);
+                if (context.isBlocked(clientAddress)) {
+                    ChatLog.warn("Conexión rechazada: IP bloqueada -> " + clientAddress.getHostAddress());
+                    context.getMetrics().connectionRejected();
                     clientSocket.close(); // Cierra la conexión inmediatamente.
                     continue; // Salta al siguiente ciclo del bucle.
                 }
+                context.getMetrics().connectionAccepted();
 
-                System.err.println("New client IP:" + clientIP);
+                if (ChatLog.isEnabled(ChatLog.Level.DEBUG)) {
+                    ChatLog.debug("New client IP:" + clientAddress.getHostAddress());
+                }
 
                 // Crea un nuevo manejador para el cliente.
-                // Pasa la lista de clientes y la lista de bloqueo.
-                ClientHandler client = new ClientHandler (clientSocket, clients, blockList);
-                clients.add(client);
+                // El manejador se añade a la lista de clientes al recibir su nombre.
+                // Su escritor de salida se ejecuta en el mismo ejecutor.
+                ClientHandler client = new ClientHandler (clientSocket, pool, context);
 
-                // Asigna un hilo del pool al nuevo cliente.
+                // Asigna un hilo del ejecutor al nuevo cliente.
                 pool.execute(client);
             }
-
-        } catch (IOException ex) {
-            System.getLogger(ChatServer.class.getName()).log(System.Logger.Level.ERROR, (String) null, ex);
         }
     }
-}
\ No newline at end of file
+}
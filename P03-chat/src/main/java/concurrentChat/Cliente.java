@@ -5,6 +5,7 @@ import Handlers.ReadHandler;
 import java.io.IOException;
 import java.net.Socket;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Clase principal del lado cliente.
@@ -12,6 +13,9 @@ import java.util.Scanner;
  */
 public class Cliente {
 
+    // Cada cuánto se envía /ping (muy por debajo del --idle-timeout del servidor)
+    private static final long HEARTBEAT_SECONDS = 30;
+
     // Socket que mantiene la conexión con el servidor.
     public static Socket conection = null;
 
@@ -45,12 +49,35 @@ public class Cliente {
         WriteHandler writer = new WriteHandler(conection);
         ReadHandler reader = new ReadHandler(conection);
 
-        // Inicia los hilos para leer y escribir en el servidor
-        Thread writeThread = new Thread(writer);
-        Thread readThread = new Thread(reader);
-
+        // Inicia los hilos para leer y escribir en el servidor. El lector es
+        // virtual y duerme en la lectura; el escritor espera al teclado y es
+        // daemon para no retener el proceso cuando se cierra la conexión.
+        Thread writeThread = new Thread(writer, "write");
+        writeThread.setDaemon(true);
         writeThread.start();
-        readThread.start();
+        Thread readThread = Thread.ofVirtual().name("read").start(reader);
+
+        // Latido: mantiene viva la sesión aunque el usuario no escriba
+        Thread heartbeatThread = new Thread(() -> {
+            try {
+                while (!conection.isClosed()) {
+                    TimeUnit.SECONDS.sleep(HEARTBEAT_SECONDS);
+                    writer.sendHeartbeat();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "heartbeat");
+        heartbeatThread.setDaemon(true);
+        heartbeatThread.start();
+
+        // La aplicación termina cuando se cierra la conexión
+        try {
+            readThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.out.println("Conexión cerrada.");
     }
 
     /**
@@ -0,0 +1,761 @@
+package concurrentChat;
+
+import Handlers.ClientHandler;
+import Handlers.EncodedMessage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Modo clúster: varios ChatServer (nodos) enlazados por TCP comparten
+ * usuarios, mensajes globales, mensajes privados y la lista de bloqueo.
+ *
+ * - Cada nodo abre un enlace de salida (PeerLink) hacia cada uno de los
+ *   demás y acepta los de ellos en --cluster-port: un sentido por conexión.
+ * - Todos los nodos tienen el directorio completo nombre -> (nodo, ID), así
+ *   un /w va directo al nodo del destinatario, en un salto.
+ * - Cada nombre tiene un nodo dueño (hash del nombre entre los nodos
+ *   configurados) que decide quién lo reserva: un nombre es único en todo
+ *   el clúster. Si el dueño no está, decide el nodo del cliente. La
+ *   respuesta del dueño llega en otro hilo: reservar no bloquea a quien pide.
+ * - Si se corta el enlace de entrada de un nodo, sus nombres siguen
+ *   reservados --cluster-grace-ms: un corte breve no los libera. Se liberan
+ *   al vencer el plazo o cuando vuelve un proceso nuevo (otra encarnación).
+ * - Los mensajes de las salas y los bloqueos temporales por inundación
+ *   siguen siendo locales de cada nodo.
+ *
+ * Sin --peers no hace nada y cada llamada cuesta una comprobación.
+ *
+ * @author sergi
+ */
+public class Cluster {
+
+    public static final int MAX_NODE_ID = (1 << UserRegistry.NODE_BITS) - 1;
+    static final int MAGIC = 0x43484E31;               // "CHN1"
+    private static final int MAX_RECORD_BYTES = 1 << 20;
+
+    // --- Tipos de registro ---
+    private static final byte GLOBAL = 1;      // Mensaje o aviso del chat global
+    private static final byte PRIVATE = 2;     // /w a un usuario de otro nodo
+    private static final byte NOTICE = 3;      // Respuesta a un usuario concreto (p. ej. error de un /w)
+    private static final byte JOIN = 4;        // Usuario con nombre en el nodo de origen
+    private static final byte LEAVE = 5;       // El nodo de origen libera ese nombre
+    private static final byte BLOCK = 6;
+    private static final byte UNBLOCK = 7;
+    private static final byte CLAIM = 8;       // Petición al nodo dueño de un nombre
+    private static final byte CLAIMED = 9;     // Su respuesta
+    private static final byte SYNC = 10;       // Todos los usuarios del nodo de origen (sustituye a los que hubiera)
+
+    /**
+     * Otro nodo del clúster, tal como aparece en --peers (id@host:puerto).
+     */
+    public static final class Peer {
+        private final int nodeId;
+        private final String host;
+        private final int port;
+
+        public Peer(int nodeId, String host, int port) {
+            this.nodeId = nodeId;
+            this.host = host;
+            this.port = port;
+        }
+
+        public int getNodeId() {
+            return nodeId;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + port;
+        }
+    }
+
+    /**
+     * Usuario con nombre en algún nodo (entrada del directorio).
+     */
+    public static final class Member {
+        private final int nodeId;
+        private final int userId;
+        private final String name;
+        private final String address;   // IP del cliente, para /block
+
+        private Member(int nodeId, int userId, String name, String address) {
+            this.nodeId = nodeId;
+            this.userId = userId;
+            this.name = name;
+            this.address = address;
+        }
+
+        public int getNodeId() {
+            return nodeId;
+        }
+
+        public int getUserId() {
+            return userId;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+    }
+
+    /**
+     * Estado del enlace de entrada de un nodo: lo que sobrevive a sus reconexiones.
+     */
+    private static final class Inbound {
+        private long incarnation;
+        private long lastSeq;
+        private Socket socket;      // Conexión vigente (una nueva sustituye a la anterior)
+        private TimingWheel.Timeout expiry; // Baja de sus usuarios si no vuelve a tiempo
+    }
+
+    private final ServerConfig config;
+    private final ServerMetrics metrics;
+    private final int nodeId;
+    private final long incarnation = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+    private final List<Peer> peers;
+    private final int[] nodes;                      // Todos los IDs, ordenados: dueño de cada nombre
+    private final Map<Integer, PeerLink> links = new TreeMap<>();   // Se llena en start() y no cambia
+    private final ConcurrentHashMap<String, Member> directory = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Inbound> inbound = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, CompletableFuture<Boolean>> claims = new ConcurrentHashMap<>();
+    private final AtomicLong lastClaimId = new AtomicLong();
+    private final Object announcing = new Object(); // Ordena los JOIN/LEAVE locales con la foto de SYNC
+    private volatile ServerContext context;
+    private volatile ServerSocket acceptor;
+    private volatile boolean closed = false;
+
+    public Cluster(ServerConfig config, ServerMetrics metrics) {
+        this.config = config;
+        this.metrics = metrics;
+        this.nodeId = config.nodeId();
+        this.peers = config.peers();
+        this.nodes = new int[peers.size() + 1];
+        nodes[0] = nodeId;
+        for (int i = 0; i < peers.size(); i++) {
+            nodes[i + 1] = peers.get(i).getNodeId();
+        }
+        Arrays.sort(nodes);
+    }
+
+    public boolean isEnabled() {
+        return !peers.isEmpty();
+    }
+
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Abre el puerto del clúster y los enlaces hacia los demás nodos.
+     */
+    public void start(ServerContext context) throws IOException {
+        if (!isEnabled()) {
+            return;
+        }
+        this.context = context;
+        for (Peer peer : peers) {
+            links.put(peer.getNodeId(), new PeerLink(peer, nodeId, incarnation, this::syncDirectory,
+                    metrics, config.clusterBatch(), config.clusterRetain()));
+        }
+
+        ServerSocket server = new ServerSocket();
+        server.bind(new InetSocketAddress(InetAddress.getByName(config.clusterBind()), config.clusterPort()));
+        acceptor = server;
+        Thread acceptThread = new Thread(this::acceptLoop, "cluster-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+
+        for (PeerLink link : links.values()) {
+            link.start();
+        }
+        System.err.println("Nodo " + nodeId + " del clúster en " + config.clusterBind() + ":" + config.clusterPort()
+                + " (" + peers.size() + " nodos vecinos)");
+    }
+
+    /**
+     * Cierra los enlaces (escribiendo lo pendiente) y el puerto del clúster.
+     */
+    public void close(long timeoutMillis) throws InterruptedException {
+        if (!isEnabled() || closed) {
+            return;
+        }
+        closed = true;
+        ServerSocket server = acceptor;
+        if (server != null) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                System.getLogger(Cluster.class.getName()).log(System.Logger.Level.ERROR, "Error al cerrar el puerto del clúster", e);
+            }
+        }
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (PeerLink link : links.values()) {
+            link.close(deadline - System.currentTimeMillis());
+        }
+        for (Inbound state : inbound.values()) {
+            synchronized (state) {
+                closeQuietly(state.socket);
+            }
+        }
+    }
+
+    // --- NOMBRES Y DIRECTORIO ---
+
+    /**
+     * Reserva 'name' en todo el clúster para el usuario local 'userId'.
+     * Si el nombre es de otro nodo, la respuesta llega en el hilo de su
+     * enlace (o en el de la rueda si no contesta en --cluster-timeout-ms):
+     * nunca bloquea al que llama. El resultado es false si ya lo tiene otro
+     * usuario.
+     */
+    public CompletableFuture<Boolean> claim(String name, int userId, String address) {
+        if (!isEnabled()) {
+            return CompletableFuture.completedFuture(true);
+        }
+        int home = homeOf(name);
+        PeerLink link = links.get(home);
+        if (home == nodeId || link == null || !link.isConnected()) {
+            return CompletableFuture.completedFuture(
+                    claimLocally(name, nodeId, userId, address) && announce(name, userId, address));
+        }
+        return claimRemotely(link, name, userId, address)
+                .thenApply(granted -> granted && announce(name, userId, address));
+    }
+
+    /**
+     * Apunta al usuario local en el directorio y se lo cuenta a los demás nodos.
+     */
+    private boolean announce(String name, int userId, String address) {
+        synchronized (announcing) {
+            directory.put(fold(name), new Member(nodeId, userId, name, address));
+            broadcast(encode(JOIN, out -> {
+                out.writeInt(userId);
+                writeString(out, name);
+                writeString(out, address);
+            }));
+        }
+        return true;
+    }
+
+    /**
+     * Libera un nombre del usuario local 'userId' (salida o /changename).
+     */
+    public void release(String name, int userId) {
+        if (!isEnabled()) {
+            return;
+        }
+        synchronized (announcing) {
+            removeMember(name, nodeId, userId);
+            broadcast(encode(LEAVE, out -> {
+                out.writeInt(userId);
+                writeString(out, name);
+            }));
+        }
+    }
+
+    /**
+     * Usuario con ese nombre en cualquier nodo (este incluido), o null.
+     */
+    public Member locate(String name) {
+        return isEnabled() ? directory.get(fold(name)) : null;
+    }
+
+    /**
+     * Usuarios con nombre en el nodo 'node' según el directorio.
+     */
+    public int countMembers(int node) {
+        int count = 0;
+        for (Member member : directory.values()) {
+            if (member.nodeId == node) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public Collection<PeerLink> getLinks() {
+        return links.values();
+    }
+
+    public int connectedLinks() {
+        int count = 0;
+        for (PeerLink link : links.values()) {
+            if (link.isConnected()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // --- REENVÍO A LOS DEMÁS NODOS ---
+
+    /**
+     * Reenvía una línea del chat global. 'senderName' null = aviso del sistema
+     * (no entra en el historial de los demás).
+     */
+    public void global(int senderId, String senderName, String line) {
+        if (!isEnabled()) {
+            return;
+        }
+        broadcast(encode(GLOBAL, out -> {
+            out.writeInt(senderId);
+            writeString(out, senderName == null ? "" : senderName);
+            writeString(out, line);
+        }));
+    }
+
+    /**
+     * Envía un /w al nodo de 'target'. Si no se puede entregar, ese nodo
+     * contesta con un aviso para el remitente.
+     */
+    public void sendPrivate(Member target, int fromId, String fromName, String text) {
+        PeerLink link = links.get(target.nodeId);
+        if (link == null) {
+            return;
+        }
+        link.send(encode(PRIVATE, out -> {
+            out.writeInt(fromId);
+            writeString(out, fromName);
+            writeString(out, target.name);
+            writeString(out, text);
+        }));
+    }
+
+    public void block(String prefix, long expiresAt, String admin) {
+        if (!isEnabled()) {
+            return;
+        }
+        broadcast(encode(BLOCK, out -> {
+            writeString(out, prefix);
+            out.writeLong(expiresAt);
+            writeString(out, admin);
+        }));
+    }
+
+    public void unblock(String prefix, String admin) {
+        if (!isEnabled()) {
+            return;
+        }
+        broadcast(encode(UNBLOCK, out -> {
+            writeString(out, prefix);
+            writeString(out, admin);
+        }));
+    }
+
+    private void broadcast(byte[] record) {
+        for (PeerLink link : links.values()) {
+            link.send(record);
+        }
+    }
+
+    /**
+     * Al (re)conectar un enlace le manda al otro nodo la lista completa de
+     * nuestros usuarios en un solo SYNC: sustituye a lo que tuviera, así
+     * también se borra lo que se perdiera con el enlace caído. Los JOIN y
+     * LEAVE locales esperan a que salga, para no quedar por detrás de la foto.
+     */
+    private void syncDirectory(PeerLink link) {
+        synchronized (announcing) {
+            List<Member> local = new ArrayList<>();
+            for (Member member : directory.values()) {
+                if (member.nodeId == nodeId) {
+                    local.add(member);
+                }
+            }
+            link.send(encode(SYNC, out -> {
+                out.writeInt(local.size());
+                for (Member member : local) {
+                    out.writeInt(member.userId);
+                    writeString(out, member.name);
+                    writeString(out, member.address);
+                }
+            }));
+        }
+    }
+
+    private int homeOf(String name) {
+        return nodes[Math.floorMod(fold(name).hashCode(), nodes.length)];
+    }
+
+    /**
+     * Decisión del dueño de un nombre: libre o ya de ese mismo usuario.
+     */
+    private boolean claimLocally(String name, int node, int userId, String address) {
+        Member candidate = new Member(node, userId, name, address);
+        Member current = directory.compute(fold(name),
+                (key, member) -> member == null || (member.nodeId == node && member.userId == userId) ? candidate : member);
+        return current == candidate;
+    }
+
+    /**
+     * Pide el nombre a su nodo dueño. Si no contesta a tiempo, decide este
+     * nodo (como con el enlace caído).
+     */
+    private CompletableFuture<Boolean> claimRemotely(PeerLink link, String name, int userId, String address) {
+        long claimId = lastClaimId.incrementAndGet();
+        CompletableFuture<Boolean> answer = new CompletableFuture<>();
+        claims.put(claimId, answer);
+        TimingWheel.Timeout timeout = context.getTimers().schedule(config.clusterTimeoutMillis(), TimeUnit.MILLISECONDS,
+                () -> answer.complete(null));
+        link.send(encode(CLAIM, out -> {
+            out.writeLong(claimId);
+            out.writeInt(userId);
+            writeString(out, name);
+            writeString(out, address);
+        }));
+        return answer.thenApply(granted -> {
+            claims.remove(claimId);
+            timeout.cancel();
+            if (granted == null) {
+                ChatLog.warn("El nodo " + link.getPeer().getNodeId() + " no responde; se reserva '" + name + "' localmente");
+                return claimLocally(name, nodeId, userId, address);
+            }
+            return granted;
+        });
+    }
+
+    private void removeMember(String name, int node, int userId) {
+        directory.computeIfPresent(fold(name),
+                (key, member) -> member.nodeId == node && member.userId == userId ? null : member);
+    }
+
+    private void dropNode(int node) {
+        directory.values().removeIf(member -> member.nodeId == node);
+    }
+
+    /**
+     * Vence el plazo de un nodo con el enlace caído: sus nombres quedan
+     * libres. Bajo el candado de su estado, así no se cruza con una
+     * reconexión que ya esté mandando su directorio.
+     */
+    private void expireNode(int node, Inbound state) {
+        synchronized (state) {
+            if (state.socket != null || closed) {
+                return; // Volvió a tiempo
+            }
+            state.expiry = null;
+            dropNode(node);
+        }
+        ChatLog.warn("Nodo " + node + " sin volver en " + config.clusterGraceMillis() + " ms; se liberan sus nombres");
+    }
+
+    // --- ENLACES DE ENTRADA ---
+
+    private void acceptLoop() {
+        ServerSocket server = acceptor;
+        while (!closed) {
+            try {
+                Socket socket = server.accept();
+                Thread.ofVirtual().name("cluster-in").start(() -> serve(socket));
+            } catch (SocketException e) {
+                if (!closed) {
+                    System.getLogger(Cluster.class.getName()).log(System.Logger.Level.ERROR, "Error en el puerto del clúster", e);
+                }
+                return;
+            } catch (IOException e) {
+                System.getLogger(Cluster.class.getName()).log(System.Logger.Level.ERROR, "Error al aceptar un enlace", e);
+            }
+        }
+    }
+
+    /**
+     * Atiende el enlace de entrada de otro nodo: saludo y después lotes de registros.
+     */
+    private void serve(Socket socket) {
+        int remote = -1;
+        Inbound state = null;
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Saludo no válido desde " + socket.getInetAddress().getHostAddress());
+            }
+            remote = in.readInt();
+            long remoteIncarnation = in.readLong();
+            if (!links.containsKey(remote)) {
+                throw new IOException("El nodo " + remote + " no está en --peers");
+            }
+
+            // Un proceso nuevo empieza su secuencia desde 1; uno que reconecta sigue donde iba.
+            // Los usuarios del proceso anterior ya no existen; los de uno que reconecta
+            // siguen (su SYNC corrige lo que se haya perdido con el corte)
+            state = inbound.computeIfAbsent(remote, id -> new Inbound());
+            long lastSeq;
+            synchronized (state) {
+                if (state.incarnation != remoteIncarnation) {
+                    state.incarnation = remoteIncarnation;
+                    state.lastSeq = 0;
+                    dropNode(remote);
+                }
+                if (state.expiry != null) {
+                    state.expiry.cancel();
+                    state.expiry = null;
+                }
+                lastSeq = state.lastSeq;
+                closeQuietly(state.socket);
+                state.socket = socket;
+            }
+            out.writeLong(incarnation);
+            out.writeLong(lastSeq);
+            out.flush();
+
+            while (true) {
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    long seq = in.readLong();
+                    int length = in.readInt();
+                    if (length <= 0 || length > MAX_RECORD_BYTES) {
+                        throw new IOException("Registro de clúster de " + length + " bytes");
+                    }
+                    byte[] record = new byte[length];
+                    in.readFully(record);
+
+                    boolean fresh;
+                    synchronized (state) {
+                        fresh = state.socket == socket && seq > state.lastSeq;
+                        if (fresh) {
+                            state.lastSeq = seq;
+                        }
+                    }
+                    if (!fresh) {
+                        metrics.clusterDuplicate(); // Reenvío de algo ya recibido
+                        continue;
+                    }
+                    metrics.clusterRecordIn();
+                    dispatch(remote, record);
+                }
+            }
+        } catch (EOFException e) {
+            // El otro nodo cerró el enlace
+        } catch (IOException e) {
+            if (!closed && !socket.isClosed()) {
+                ChatLog.warn("Enlace de entrada del nodo " + remote + " cerrado: " + e.getMessage());
+            }
+        } finally {
+            if (state != null) {
+                boolean current;
+                synchronized (state) {
+                    current = state.socket == socket;
+                    if (current) {
+                        state.socket = null;
+                    }
+                    if (current && !closed) {
+                        // Sus nombres siguen reservados un tiempo: un corte breve no los libera
+                        int node = remote;
+                        Inbound lost = state;
+                        state.expiry = context.getTimers().schedule(config.clusterGraceMillis(), TimeUnit.MILLISECONDS,
+                                () -> expireNode(node, lost));
+                    }
+                }
+                if (current && !closed) {
+                    ChatLog.warn("Nodo " + remote + " desconectado del clúster");
+                }
+            }
+        }
+    }
+
+    /**
+     * Aplica un registro de otro nodo. Se ejecuta en el hilo de su enlace,
+     * así los registros de un mismo nodo se aplican en orden.
+     */
+    private void dispatch(int from, byte[] record) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        try {
+            byte type = in.readByte();
+            switch (type) {
+                case GLOBAL -> onGlobal(in.readInt(), readString(in), readString(in));
+                case PRIVATE -> onPrivate(from, in.readInt(), readString(in), readString(in), readString(in));
+                case NOTICE -> onNotice(in.readInt(), readString(in));
+                case JOIN -> {
+                    int userId = in.readInt();
+                    String name = readString(in);
+                    directory.put(fold(name), new Member(from, userId, name, readString(in)));
+                }
+                case LEAVE -> {
+                    int userId = in.readInt();
+                    removeMember(readString(in), from, userId);
+                }
+                case BLOCK -> onBlock(from, readString(in), in.readLong(), readString(in));
+                case UNBLOCK -> onUnblock(from, readString(in), readString(in));
+                case CLAIM -> {
+                    long claimId = in.readLong();
+                    int userId = in.readInt();
+                    String name = readString(in);
+                    boolean granted = claimLocally(name, from, userId, readString(in));
+                    links.get(from).send(encode(CLAIMED, out -> {
+                        out.writeLong(claimId);
+                        out.writeBoolean(granted);
+                    }));
+                }
+                case SYNC -> {
+                    Map<String, Member> members = new HashMap<>();
+                    for (int i = in.readInt(); i > 0; i--) {
+                        int userId = in.readInt();
+                        String name = readString(in);
+                        members.put(fold(name), new Member(from, userId, name, readString(in)));
+                    }
+                    directory.entrySet().removeIf(entry -> entry.getValue().nodeId == from
+                            && !members.containsKey(entry.getKey()));
+                    directory.putAll(members);
+                }
+                case CLAIMED -> {
+                    CompletableFuture<Boolean> answer = claims.get(in.readLong());
+                    boolean granted = in.readBoolean();
+                    if (answer != null) {
+                        answer.complete(granted);
+                    }
+                }
+                default -> ChatLog.warn("Registro de clúster desconocido (" + type + ") del nodo " + from);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.getLogger(Cluster.class.getName()).log(System.Logger.Level.ERROR, "Registro de clúster no válido del nodo " + from, e);
+        }
+    }
+
+    private void onGlobal(int senderId, String senderName, String line) {
+        EncodedMessage message = EncodedMessage.of(line);
+        if (!senderName.isEmpty()) {
+            // Mensaje de un usuario: entra en el historial y el registro de este nodo
+            context.getHistory().append(senderId, message);
+            context.getLog().global(senderName, line);
+        }
+        ClientHandler.deliver(context.getClients(), message, senderId, metrics);
+    }
+
+    private void onPrivate(int from, int fromId, String fromName, String toName, String text) {
+        ClientHandler target = context.getUserRegistry().lookup(toName);
+        String problem;
+        if (target == null) {
+            problem = " Error: Usuario '" + toName + "' no encontrado.";
+        } else if (target.isIgnoring(fromId)) {
+            problem = target.getUsername() + " no puede recibir tus mensajes (te ha ignorado).";
+        } else {
+            target.sendMessage("(Privado de " + fromName + "): " + text);
+            return;
+        }
+        links.get(from).send(encode(NOTICE, out -> {
+            out.writeInt(fromId);
+            writeString(out, problem);
+        }));
+    }
+
+    private void onNotice(int userId, String text) {
+        for (ClientHandler client : context.getClients()) {
+            if (client.getUserId() == userId) {
+                client.sendMessage(text);
+                return;
+            }
+        }
+    }
+
+    private void onBlock(int from, String prefix, long expiresAt, String admin) {
+        if (expiresAt <= System.currentTimeMillis()) {
+            return; // Caducó por el camino
+        }
+        context.getBlockList().block(prefix, expiresAt);
+        context.getLog().block(prefix, admin, expiresAt);
+        int kicked = ClientHandler.kickBlocked(context.getClients(), prefix, null);
+        ChatLog.warn(prefix + " ha sido añadido a la blocklist por " + admin + " (nodo " + from + ", "
+                + kicked + " expulsados aquí)");
+    }
+
+    private void onUnblock(int from, String prefix, String admin) {
+        if (context.getBlockList().unblock(prefix)) {
+            context.getLog().unblock(prefix, admin);
+            ChatLog.warn(prefix + " ha sido retirado de la blocklist por " + admin + " (nodo " + from + ")");
+        }
+    }
+
+    // --- CODIFICACIÓN ---
+
+    @FunctionalInterface
+    private interface Fields {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Codifica un registro una sola vez; los bytes se comparten entre enlaces.
+     */
+    private static byte[] encode(byte type, Fields fields) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(type);
+            fields.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // En memoria no ocurre
+        }
+        return bytes.toByteArray();
+    }
+
+    // writeUTF limita a 64 KB: las cadenas van como longitud + UTF-8
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_RECORD_BYTES) {
+            throw new IOException("Cadena de " + length + " bytes");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String fold(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    private static void closeQuietly(Socket socket) {
+        if (socket == null) {
+            return;
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Ya cerrado
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package concurrentChat;
+
+import Handlers.ClientHandler;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hilo de eventos del motor NIO. Atiende con un único Selector a todas las
+ * conexiones que se le asignan y ejecuta las tareas que le envían otros hilos.
+ *
+ * @author sergi
+ */
+public class EventLoop implements Runnable {
+
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    private final Selector selector;
+    private final ServerContext context;
+
+    // Tareas pendientes (registro de canales, escrituras, cierres) enviadas desde otros hilos
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    // Tareas aplazadas (volcados con --write-delay-us). Todas usan el mismo
+    // retardo, así que llegan casi en orden de vencimiento y basta una cola
+    private final Queue<Deferred> deferred = new ConcurrentLinkedQueue<>();
+
+    // Buffer de lectura compartido por todas las conexiones de este hilo
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+    private volatile Thread thread;
+
+    /**
+     * Una tarea aplazada y su vencimiento (nanoTime).
+     */
+    private static final class Deferred {
+        private final long at;
+        private final Runnable task;
+
+        private Deferred(long at, Runnable task) {
+            this.at = at;
+            this.task = task;
+        }
+    }
+
+    public EventLoop(ServerContext context) throws IOException {
+        this.selector = Selector.open();
+        this.context = context;
+    }
+
+    /**
+     * Asigna un canal recién aceptado a este hilo de eventos.
+     */
+    public void register(SocketChannel channel) {
+        execute(() -> accept(channel));
+    }
+
+    /**
+     * Ejecuta 'task' en el hilo de eventos dentro de 'delayNanos'
+     * (resolución de milisegundos: es lo que admite Selector.select).
+     */
+    public void schedule(Runnable task, long delayNanos) {
+        deferred.add(new Deferred(System.nanoTime() + delayNanos, task));
+        if (Thread.currentThread() != thread) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Detiene el hilo de eventos después de las tareas ya encoladas
+     * (por ejemplo, los cierres del apagado ordenado).
+     */
+    public void shutdown() {
+        execute(() -> Thread.currentThread().interrupt());
+    }
+
+    /**
+     * Encola una tarea para que la ejecute el hilo de eventos.
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (Thread.currentThread() != thread) {
+            selector.wakeup();
+        }
+    }
+
+    @Override
+    public void run() {
+        thread = Thread.currentThread();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                // Si hay tareas pendientes no se bloquea esperando eventos
+                long timeout = runDeferred();
+                if (!tasks.isEmpty()) {
+                    selector.selectNow();
+                } else if (timeout > 0) {
+                    selector.select(timeout);
+                } else {
+                    selector.select();
+                }
+                processSelectedKeys();
+                runTasks();
+            } catch (IOException ex) {
+                System.getLogger(EventLoop.class.getName()).log(System.Logger.Level.ERROR, (String) null, ex);
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException ex) {
+            System.getLogger(EventLoop.class.getName()).log(System.Logger.Level.ERROR, (String) null, ex);
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            NioConnection connection = (NioConnection) key.attachment();
+
+            if (key.isValid() && key.isReadable()) {
+                connection.onReadable(readBuffer);
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.onWritable();
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            runTask(task);
+        }
+    }
+
+    /**
+     * Ejecuta las tareas aplazadas ya vencidas. Devuelve los milisegundos
+     * hasta la siguiente (redondeando hacia arriba), o 0 si no queda ninguna.
+     */
+    private long runDeferred() {
+        long now = System.nanoTime();
+        Deferred next;
+        while ((next = deferred.peek()) != null && next.at - now <= 0) {
+            deferred.poll();
+            runTask(next.task);
+        }
+        if (next == null) {
+            return 0;
+        }
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(next.at - now + 999_999));
+    }
+
+    private void runTask(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException ex) {
+            System.getLogger(EventLoop.class.getName()).log(System.Logger.Level.ERROR, "Error en tarea del hilo de eventos", ex);
+        }
+    }
+
+    /**
+     * Registra el canal en el Selector y arranca su ClientHandler.
+     */
+    private void accept(SocketChannel channel) {
+        try {
+            channel.configureBlocking(false);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            NioConnection connection = new NioConnection(channel, key, this,
+                    context.getConfig().outboundCapacity(), context.getConfig().overflowPolicy(),
+                    context.getConfig().writeBatch(), TimeUnit.MICROSECONDS.toNanos(context.getConfig().writeDelayMicros()),
+                    context.getMetrics());
+            ClientHandler handler = new ClientHandler(connection, context);
+            connection.setHandler(handler);
+            key.attach(connection);
+
+            handler.onConnect();
+        } catch (IOException ex) {
+            ChatLog.info("Cliente desconectado (Error): " + ex.getMessage());
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.getLogger(EventLoop.class.getName()).log(System.Logger.Level.ERROR, "Error al cerrar canal", e);
+            }
+        }
+    }
+}
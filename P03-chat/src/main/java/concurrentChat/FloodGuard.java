@@ -0,0 +1,200 @@
+package concurrentChat;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Límite de ritmo por conexión y por IP, en líneas y en bytes por segundo,
+ * comprobado antes de despachar cada línea. Una línea pasa o se descarta
+ * entera: si un cubo la rechaza, los demás no gastan fichas por ella.
+ * Antes del login solo cuentan los cubos de la conexión; los de la IP no,
+ * porque muchos clientes tras una misma IP (NAT, pruebas de carga) se
+ * quedarían sin poder dar su nombre. Escala así:
+ *   1. la línea que excede el límite se descarta (se avisa al cliente una vez);
+ *   2. tras --flood-disconnect líneas descartadas se desconecta al cliente;
+ *   3. tras --flood-ban-after desconexiones de la misma IP, la IP queda
+ *      bloqueada --flood-ban-seconds segundos (bloqueo con caducidad en la
+ *      BlockList compartida).
+ * No hay candados en el camino de cada línea ni hilos de temporizador:
+ * los cubos son TokenBucket y los bloqueos caducan al consultarlos.
+ *
+ * @author sergi
+ */
+public class FloodGuard {
+
+    /**
+     * Resultado de comprobar una línea.
+     */
+    public enum Verdict {
+        ALLOW,          // Se despacha
+        THROTTLE,       // Se descarta
+        DISCONNECT      // Se descarta y se desconecta al cliente
+    }
+
+    /**
+     * Cubos compartidos por todas las conexiones de una IP.
+     */
+    private static final class IpState {
+        private final TokenBucket messages;
+        private final TokenBucket bytes;
+        private int connections = 0;            // Solo se toca dentro de compute()
+
+        private IpState(TokenBucket messages, TokenBucket bytes) {
+            this.messages = messages;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Desconexiones recientes de una IP por inundación.
+     */
+    private static final class Offense {
+        private final int kicks;
+        private final long since;
+
+        private Offense(int kicks, long since) {
+            this.kicks = kicks;
+            this.since = since;
+        }
+    }
+
+    private final ServerConfig config;
+    private final ServerMetrics metrics;
+    private final BlockList blockList;
+    private final ConcurrentHashMap<String, IpState> ips = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Offense> offenses = new ConcurrentHashMap<>();
+
+    public FloodGuard(ServerConfig config, ServerMetrics metrics, BlockList blockList) {
+        this.config = config;
+        this.metrics = metrics;
+        this.blockList = blockList;
+    }
+
+    /**
+     * Abre el control de una nueva conexión desde 'ip'.
+     */
+    public Session open(String ip) {
+        IpState shared = ips.compute(ip, (key, state) -> {
+            if (state == null) {
+                state = new IpState(bucket(config.rateIpMessages()), bucket(config.rateIpBytes()));
+            }
+            state.connections++;
+            return state;
+        });
+        return new Session(ip, shared);
+    }
+
+    private TokenBucket bucket(int perSecond) {
+        if (perSecond <= 0) {
+            return null; // Límite desactivado
+        }
+        return new TokenBucket(perSecond, (long) perSecond * config.rateBurstSeconds());
+    }
+
+    /**
+     * Anota una desconexión por inundación y bloquea la IP si reincide.
+     */
+    private void recordKick(String ip) {
+        long now = System.nanoTime();
+        long window = config.floodBanSeconds() * 1_000_000_000L;
+        Offense offense = offenses.merge(ip, new Offense(1, now), (old, fresh) ->
+                now - old.since > window ? fresh : new Offense(old.kicks + 1, old.since));
+        if (offense.kicks >= config.floodBanAfter()) {
+            offenses.remove(ip);
+            blockList.block(ip, System.currentTimeMillis() + config.floodBanSeconds() * 1000L);
+            metrics.temporaryBan();
+            ChatLog.warn("IP bloqueada " + config.floodBanSeconds() + " s por inundación: " + ip);
+        }
+    }
+
+    /**
+     * Estado de una conexión. Lo usa solo el hilo que lee de ella.
+     */
+    public final class Session {
+        private final String ip;
+        private final IpState shared;
+        private final TokenBucket messages = bucket(config.rateMessages());
+        private final TokenBucket bytes = bucket(config.rateBytes());
+        private int strikes = 0;                // Líneas descartadas recientes
+        private boolean closed = false;
+
+        private Session(String ip, IpState shared) {
+            this.ip = ip;
+            this.shared = shared;
+        }
+
+        /**
+         * Comprueba (y consume) una línea de 'length' bytes.
+         */
+        public Verdict check(int length) {
+            return check(length, true);
+        }
+
+        /**
+         * Como check(), para las líneas anteriores al login: sin los cubos de la IP.
+         */
+        public Verdict checkLogin(int length) {
+            return check(length, false);
+        }
+
+        private Verdict check(int length, boolean perIp) {
+            long now = System.nanoTime();
+            if (acquire(messages, 1, now, null, 0)
+                    && acquire(bytes, length, now, messages, 1)) {
+                if (!perIp || acquireShared(length, now)) {
+                    strikes = Math.max(0, strikes - 1);
+                    return Verdict.ALLOW;
+                }
+                refund(messages, 1);
+                refund(bytes, length);
+            }
+            metrics.lineThrottled();
+            if (++strikes >= config.floodDisconnect()) {
+                metrics.floodDisconnect();
+                recordKick(ip);
+                return Verdict.DISCONNECT;
+            }
+            return Verdict.THROTTLE;
+        }
+
+        /**
+         * true si es la primera línea descartada de una racha (para avisar una sola vez).
+         */
+        public boolean firstStrike() {
+            return strikes == 1;
+        }
+
+        /**
+         * Libera los cubos de la IP si era su última conexión.
+         */
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            ips.computeIfPresent(ip, (key, state) -> --state.connections == 0 ? null : state);
+        }
+
+        private boolean acquireShared(int length, long now) {
+            return acquire(shared.messages, 1, now, null, 0)
+                    && acquire(shared.bytes, length, now, shared.messages, 1);
+        }
+
+        /**
+         * Gasta 'tokens' de 'bucket'; si no puede, devuelve a 'previous' lo
+         * que ya había gastado por la misma línea.
+         */
+        private boolean acquire(TokenBucket bucket, long tokens, long now, TokenBucket previous, long spent) {
+            if (bucket == null || bucket.tryAcquire(tokens, now)) {
+                return true;
+            }
+            refund(previous, spent);
+            return false;
+        }
+
+        private void refund(TokenBucket bucket, long tokens) {
+            if (bucket != null) {
+                bucket.refund(tokens);
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package concurrentChat;
+
+import Handlers.WireProtocol;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Decodificador del protocolo binario para el motor NIO (ver WireProtocol).
+ * Como cada trama trae su longitud, los payloads se copian en bloque sin
+ * buscar separadores byte a byte, y una sola lectura puede traer varias tramas.
+ *
+ * @author sergi
+ */
+public class FrameDecoder implements InboundDecoder {
+
+    // El saludo y la cabecera de trama miden lo mismo (5 bytes)
+    private final byte[] header = new byte[Math.max(WireProtocol.HEADER_LENGTH, WireProtocol.HANDSHAKE_LENGTH)];
+    private int headerFilled = 0;
+    private boolean handshakeDone = false;
+
+    private byte[] payload = new byte[256];
+    private int payloadLength = -1;     // -1 = esperando cabecera
+    private int payloadFilled = 0;
+    private byte opcode;
+
+    @Override
+    public void feed(ByteBuffer input, Consumer<String> sink) throws IOException {
+        while (input.hasRemaining()) {
+            if (payloadLength < 0) {
+                int needed = (handshakeDone ? WireProtocol.HEADER_LENGTH : WireProtocol.HANDSHAKE_LENGTH) - headerFilled;
+                int n = Math.min(needed, input.remaining());
+                input.get(header, headerFilled, n);
+                headerFilled += n;
+                if (n < needed) {
+                    return; // Cabecera incompleta: espera más datos
+                }
+                headerFilled = 0;
+
+                if (!handshakeDone) {
+                    WireProtocol.checkHandshake(header);
+                    handshakeDone = true;
+                    continue;
+                }
+                startFrame();
+            } else {
+                int n = Math.min(payloadLength - payloadFilled, input.remaining());
+                input.get(payload, payloadFilled, n);
+                payloadFilled += n;
+            }
+
+            if (payloadFilled == payloadLength) {
+                if (opcode == WireProtocol.OP_LINE) {
+                    WireProtocol.checkLinePayload(payload, payloadLength);
+                    sink.accept(new String(payload, 0, payloadLength, StandardCharsets.UTF_8));
+                }
+                payloadLength = -1;
+            }
+        }
+    }
+
+    private void startFrame() throws IOException {
+        int length = ((header[0] & 0xff) << 24) | ((header[1] & 0xff) << 16)
+                | ((header[2] & 0xff) << 8) | (header[3] & 0xff);
+        WireProtocol.checkFrameLength(length);
+        opcode = header[4];
+        payloadLength = length - 1;
+        payloadFilled = 0;
+        if (payload.length < payloadLength) {
+            payload = Arrays.copyOf(payload, Math.max(payloadLength, payload.length * 2));
+        }
+    }
+}
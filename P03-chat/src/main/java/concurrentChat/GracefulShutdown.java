@@ -0,0 +1,178 @@
+package concurrentChat;
+
+import Handlers.ClientHandler;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Apagado ordenado del servidor (modo drenaje). Se dispara con el gancho de
+ * apagado de la JVM (SIGTERM, SIGINT), con /shutdown de un administrador o
+ * desde código, y siempre hace lo mismo, una sola vez:
+ *   1. deja de aceptar conexiones;
+ *   2. avisa a todos los clientes;
+ *   3. espera, como mucho --drain-seconds, a que se vacíen sus colas de salida;
+ *   4. desconecta a los clientes (sus colas se vuelcan antes del cierre);
+ *   5. detiene los hilos del motor, los enlaces del clúster y el endpoint de métricas;
+ *   6. fuerza a disco el registro persistente y el log del servidor.
+ *
+ * @author sergi
+ */
+public class GracefulShutdown {
+
+    private static final long POLL_MILLIS = 20;
+
+    /**
+     * Detiene los hilos que atienden a los clientes (pool o bucles de eventos).
+     */
+    @FunctionalInterface
+    public interface Workers {
+        void stop(long timeoutMillis) throws InterruptedException;
+    }
+
+    private final ServerConfig config;
+    private final Set<ClientHandler> clients;
+    private final MessageLog log;
+    private final Cluster cluster;
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private volatile Closeable acceptor;        // ServerSocket o ServerSocketChannel
+    private volatile Workers workers;
+    private volatile MetricsEndpoint metricsEndpoint;
+
+    public GracefulShutdown(ServerConfig config, Set<ClientHandler> clients, MessageLog log, Cluster cluster) {
+        this.config = config;
+        this.clients = clients;
+        this.log = log;
+        this.cluster = cluster;
+    }
+
+    public void setAcceptor(Closeable acceptor) {
+        this.acceptor = acceptor;
+    }
+
+    public void setWorkers(Workers workers) {
+        this.workers = workers;
+    }
+
+    public void setMetricsEndpoint(MetricsEndpoint metricsEndpoint) {
+        this.metricsEndpoint = metricsEndpoint;
+    }
+
+    /**
+     * true desde que empieza el drenaje: el bucle de aceptación lo usa para
+     * distinguir el cierre de su socket de un error, y los clientes para no
+     * anunciar cada salida.
+     */
+    public boolean isDraining() {
+        return started.get();
+    }
+
+    /**
+     * Gancho para Runtime.addShutdownHook (SIGTERM, SIGINT o System.exit).
+     */
+    public Thread hook() {
+        return new Thread(() -> drain("señal de parada"), "chat-shutdown-hook");
+    }
+
+    /**
+     * Drena en otro hilo y termina el proceso (para /shutdown: el hilo que lo
+     * pide es de un cliente y en NIO debe seguir volcando colas).
+     */
+    public void drainAndExit(String reason) {
+        Thread thread = new Thread(() -> {
+            drain(reason);
+            System.exit(0);
+        }, "chat-shutdown");
+        thread.start();
+    }
+
+    /**
+     * Ejecuta el apagado. Si ya estaba en marcha, espera a que termine.
+     */
+    public void drain(String reason) {
+        if (!started.compareAndSet(false, true)) {
+            awaitFinished();
+            return;
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(config.drainSeconds());
+        try {
+            System.err.println("Apagando el servidor (" + reason + ")...");
+            ChatLog.warn("Inicio del apagado ordenado: " + reason);
+
+            // --- 1. NO MÁS CONEXIONES ---
+            closeAcceptor();
+
+            // --- 2. AVISO ---
+            for (ClientHandler client : clients) {
+                client.sendMessage(" El servidor se está apagando (" + reason + "). Vuelve a conectarte en unos segundos.");
+            }
+
+            // --- 3. VOLCADO DE COLAS ---
+            int pending;
+            while ((pending = pendingMessages()) > 0 && System.nanoTime() - deadline < 0) {
+                TimeUnit.MILLISECONDS.sleep(POLL_MILLIS);
+            }
+            if (pending > 0) {
+                ChatLog.warn(pending + " mensajes sin entregar al vencer --drain-seconds");
+            }
+
+            // --- 4. DESCONEXIÓN ---
+            int disconnected = 0;
+            for (ClientHandler client : clients) {
+                client.disconnect();
+                disconnected++;
+            }
+
+            // --- 5. HILOS ---
+            Workers current = workers;
+            if (current != null) {
+                current.stop(Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            }
+            cluster.close(Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            MetricsEndpoint endpoint = metricsEndpoint;
+            if (endpoint != null) {
+                endpoint.stop();
+            }
+            ChatLog.warn("Apagado completo: " + disconnected + " clientes desconectados");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // --- 6. PERSISTENCIA ---
+            log.close();
+            ChatLog.shutdown();
+            finished.countDown();
+        }
+    }
+
+    private void closeAcceptor() {
+        Closeable current = acceptor;
+        if (current == null) {
+            return;
+        }
+        try {
+            current.close();
+        } catch (IOException e) {
+            System.getLogger(GracefulShutdown.class.getName()).log(System.Logger.Level.ERROR, "Error al cerrar el socket de escucha", e);
+        }
+    }
+
+    private int pendingMessages() {
+        int pending = 0;
+        for (ClientHandler client : clients) {
+            pending += client.getQueueDepth();
+        }
+        return pending;
+    }
+
+    private void awaitFinished() {
+        try {
+            finished.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package concurrentChat;
+
+import java.util.Arrays;
+
+/**
+ * Conjunto pequeño de IDs de usuario (enteros) para las listas de ignorados.
+ *
+ * Guarda un int[] ordenado que se sustituye entero en cada cambio
+ * (copy-on-write). Los cambios los hace solo su dueño y son raros; las
+ * consultas llegan desde los hilos que difunden, en cada mensaje y por cada
+ * destinatario, así que contains() no usa candados ni reserva memoria.
+ *
+ * @author sergi
+ */
+public final class IdSet {
+
+    private static final int[] EMPTY = new int[0];
+
+    private volatile int[] ids = EMPTY;
+
+    public boolean contains(int id) {
+        int[] current = ids;
+        return current.length != 0 && Arrays.binarySearch(current, id) >= 0;
+    }
+
+    /**
+     * Añade 'id'. Devuelve false si ya estaba.
+     */
+    public synchronized boolean add(int id) {
+        int[] current = ids;
+        int index = Arrays.binarySearch(current, id);
+        if (index >= 0) {
+            return false;
+        }
+        int insert = -index - 1;
+        int[] copy = new int[current.length + 1];
+        System.arraycopy(current, 0, copy, 0, insert);
+        copy[insert] = id;
+        System.arraycopy(current, insert, copy, insert + 1, current.length - insert);
+        ids = copy;
+        return true;
+    }
+
+    /**
+     * Quita 'id'. Devuelve false si no estaba.
+     */
+    public synchronized boolean remove(int id) {
+        int[] current = ids;
+        int index = Arrays.binarySearch(current, id);
+        if (index < 0) {
+            return false;
+        }
+        int[] copy = new int[current.length - 1];
+        System.arraycopy(current, 0, copy, 0, index);
+        System.arraycopy(current, index + 1, copy, index, copy.length - index);
+        ids = copy;
+        return true;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+}
@@ -0,0 +1,20 @@
+package concurrentChat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * Convierte los bytes recibidos por un canal no bloqueante en líneas de chat.
+ * Hay una implementación por protocolo: texto (LineDecoder) y tramas (FrameDecoder).
+ *
+ * @author sergi
+ */
+public interface InboundDecoder {
+
+    /**
+     * Consume todos los bytes disponibles en 'input' y entrega cada línea
+     * completa a 'sink'. Guarda lo incompleto para la siguiente lectura.
+     */
+    void feed(ByteBuffer input, Consumer<String> sink) throws IOException;
+}
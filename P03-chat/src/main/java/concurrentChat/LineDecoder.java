@@ -0,0 +1,53 @@
+package concurrentChat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Separa en líneas los bytes que llegan por un canal no bloqueante.
+ * Guarda la línea incompleta entre lecturas, de modo que el ByteBuffer
+ * de lectura puede reutilizarse para todas las conexiones del hilo.
+ *
+ * @author sergi
+ */
+public class LineDecoder implements InboundDecoder {
+
+    private final int maxLineLength;
+    private byte[] line = new byte[256];
+    private int length = 0;
+
+    public LineDecoder(int maxLineLength) {
+        this.maxLineLength = maxLineLength;
+    }
+
+    /**
+     * Consume todos los bytes disponibles en 'input' y entrega cada línea
+     * completa (sin "\r\n") a 'sink'. Lanza IOException si una línea supera el máximo.
+     */
+    @Override
+    public void feed(ByteBuffer input, Consumer<String> sink) throws IOException {
+        while (input.hasRemaining()) {
+            byte b = input.get();
+            if (b == '\n') {
+                int end = length;
+                if (end > 0 && line[end - 1] == '\r') {
+                    end--;
+                }
+                String text = new String(line, 0, end, StandardCharsets.UTF_8);
+                length = 0;
+                sink.accept(text);
+            } else {
+                if (length == line.length) {
+                    if (length >= maxLineLength) {
+                        throw new IOException("Línea demasiado larga (máximo " + maxLineLength + " bytes)");
+                    }
+                    line = Arrays.copyOf(line, Math.min(maxLineLength, length * 2));
+                }
+                line[length++] = b;
+            }
+        }
+    }
+}
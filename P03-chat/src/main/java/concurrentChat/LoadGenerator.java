@@ -0,0 +1,428 @@
+package concurrentChat;
+
+import Handlers.StreamCompressor;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Generador de carga sin interfaz: abre N sesiones contra ChatServer, las
+ * registra con nombres distintos y envía una mezcla de mensajes globales,
+ * /w y /changename al ritmo pedido. Cada mensaje lleva la marca de tiempo
+ * de envío; al recibirlo se calcula la latencia de extremo a extremo.
+ *
+ * Uso: LoadGenerator [--host=localhost] [--port=8080] [--clients=1000]
+ *                    [--rate=100] [--duration=30] [--warmup=5]
+ *                    [--mix=global:80,private:15,rename:5] [--message-size=64]
+ *                    [--compress]
+ *
+ * Cada sesión usa un hilo virtual para leer y otro para enviar, y solo
+ * envía después de ver la bienvenida: un login rechazado o que no llega a
+ * completarse cuenta como error y la sesión no manda nada. Con
+ * --compress las sesiones piden /compress antes del nombre; el informe da
+ * los bytes recibidos por la red en ambos casos.
+ *
+ * @author sergi
+ */
+public class LoadGenerator {
+
+    // Marca de tiempo dentro del texto: "#t=<ejecución>:<nanoTime>"
+    private static final String MARK = "#t=";
+
+    private final String host;
+    private final int port;
+    private final int clients;
+    private final double rate;                  // Mensajes por segundo entre todas las sesiones
+    private final int durationSeconds;
+    private final int warmupSeconds;
+    private final int messageSize;
+    private final int globalWeight;
+    private final int privateWeight;
+    private final int renameWeight;
+    private final boolean compress;             // Las sesiones piden /compress
+
+    private final String runId = Long.toString(ThreadLocalRandom.current().nextLong(1L << 40), 36);
+    private final AtomicReferenceArray<String> names;   // Nombre actual de cada sesión
+    private final List<Session> sessions = new ArrayList<>();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    // --- Contadores ---
+    private final LongAdder sentGlobal = new LongAdder();
+    private final LongAdder sentPrivate = new LongAdder();
+    private final LongAdder sentRename = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder loginFailures = new LongAdder();   // También cuentan en errors
+    private final LongAdder bytesReceived = new LongAdder();    // Tal como llegan del socket
+
+    private volatile long measureFrom = Long.MAX_VALUE;   // nanoTime desde el que se registran latencias
+    private volatile boolean sending = false;
+
+    public LoadGenerator(ServerConfig config) {
+        this.host = config.get("host", "localhost");
+        this.port = config.port();
+        this.clients = Math.max(2, config.getInt("clients", 1000));
+        this.rate = Math.max(1, config.getInt("rate", 100));
+        this.durationSeconds = Math.max(1, config.getInt("duration", 30));
+        this.warmupSeconds = Math.max(0, config.getInt("warmup", 5));
+        this.messageSize = Math.max(0, config.getInt("message-size", 64));
+        this.compress = config.getBoolean("compress", false);
+        this.names = new AtomicReferenceArray<>(clients);
+
+        int[] weights = parseMix(config.get("mix", "global:80,private:15,rename:5"));
+        this.globalWeight = weights[0];
+        this.privateWeight = weights[1];
+        this.renameWeight = weights[2];
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        try {
+            new LoadGenerator(ServerConfig.fromArgs(args)).run();
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Conecta, calienta, mide y muestra el informe final.
+     */
+    public void run() throws InterruptedException {
+        ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor();
+
+        // --- 1. CONEXIÓN Y LOGIN ---
+        System.out.println("Conectando " + clients + " sesiones a " + host + ":" + port + "...");
+        long connectStart = System.nanoTime();
+        CountDownLatch loggedIn = new CountDownLatch(clients);
+        for (int i = 0; i < clients; i++) {
+            Session session = new Session(i, loggedIn);
+            sessions.add(session);
+            threads.execute(session::readLoop);
+        }
+        loggedIn.await(60, TimeUnit.SECONDS);
+        int welcomed = 0;
+        for (Session session : sessions) {
+            if (session.welcomed) {
+                welcomed++;
+            }
+        }
+        if (welcomed < clients) {
+            System.err.println("Solo " + welcomed + " sesiones completaron el login; se continúa con ellas.");
+        }
+        System.out.printf("Login completado en %d ms%n", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connectStart));
+
+        // --- 2. ENVÍO ---
+        sending = true;
+        for (Session session : sessions) {
+            threads.execute(session::sendLoop);
+        }
+        TimeUnit.SECONDS.sleep(warmupSeconds);
+        measureFrom = System.nanoTime();
+        long[] sentAtStart = {sentGlobal.sum(), sentPrivate.sum(), sentRename.sum(), delivered.sum(), bytesReceived.sum()};
+        for (int s = 1; s <= durationSeconds; s++) {
+            TimeUnit.SECONDS.sleep(1);
+            System.out.printf("[%3ds] entregados=%d p50=%.2fms p99=%.2fms%n", s, delivered.sum() - sentAtStart[3],
+                    millis(latency.percentile(50)), millis(latency.percentile(99)));
+        }
+        sending = false;
+        double elapsed = (System.nanoTime() - measureFrom) / 1e9;
+        TimeUnit.SECONDS.sleep(1); // Deja llegar los mensajes en vuelo
+
+        // --- 3. INFORME ---
+        long global = sentGlobal.sum() - sentAtStart[0];
+        long priv = sentPrivate.sum() - sentAtStart[1];
+        long rename = sentRename.sum() - sentAtStart[2];
+        long received = bytesReceived.sum() - sentAtStart[4];
+        long lines = delivered.sum() - sentAtStart[3];
+        System.out.println("--- RESULTADO (" + durationSeconds + " s medidos, " + warmupSeconds + " s de calentamiento) ---");
+        System.out.printf("Enviados: %d globales, %d privados, %d cambios de nombre (%.0f msg/s)%n",
+                global, priv, rename, (global + priv + rename) / elapsed);
+        System.out.printf("Entregas medidas: %d (%.0f líneas/s)%n", latency.count(), latency.count() / elapsed);
+        System.out.printf("Latencia: p50=%.3fms p99=%.3fms p999=%.3fms max=%.3fms media=%.3fms%n",
+                millis(latency.percentile(50)), millis(latency.percentile(99)), millis(latency.percentile(99.9)),
+                millis(latency.max()), latency.mean() / 1e6);
+        System.out.printf("Recibido por la red: %.1f MB (%.1f bytes por línea entregada)%s%n", received / 1e6,
+                lines == 0 ? 0.0 : (double) received / lines, compress ? ", con compresión" : "");
+        System.out.println("Errores: " + errors.sum() + " (" + loginFailures.sum() + " logins fallidos)");
+
+        for (Session session : sessions) {
+            session.close();
+        }
+        threads.shutdownNow();
+    }
+
+    /**
+     * Una conexión simulada de Cliente.
+     */
+    private final class Session {
+        private final int id;
+        private final CountDownLatch loggedIn;
+        private Socket socket;
+        private OutputStream out;
+        private boolean renamed = false;
+        private boolean counted = false;        // Ya descontada del latch de login
+        private volatile boolean welcomed = false;  // Vio la bienvenida: a partir de ahí envía
+        private volatile boolean failed = false;    // Login rechazado o conexión perdida antes
+
+        private Session(int id, CountDownLatch loggedIn) {
+            this.id = id;
+            this.loggedIn = loggedIn;
+        }
+
+        /**
+         * Conecta, hace login y lee líneas hasta que se cierre la conexión.
+         */
+        private void readLoop() {
+            try {
+                socket = new Socket(host, port);
+                socket.setTcpNoDelay(true);
+                out = socket.getOutputStream();
+                InputStream input = new BufferedInputStream(counting(socket.getInputStream()));
+                readRawLine(input); // "Conexión establecida..."
+                if (compress) {
+                    write(StreamCompressor.REQUEST);
+                    String reply = readRawLine(input);
+                    if (StreamCompressor.ACK.equals(reply)) {
+                        input = StreamCompressor.inflating(input);
+                    } else {
+                        errors.increment(); // El servidor no comprime: se sigue en texto
+                    }
+                }
+                BufferedReader in = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+                String name = baseName(id);
+                names.set(id, name);
+                write(name);
+
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (!welcomed) {
+                        if (line.startsWith(" ¡Bienvenido ")) {
+                            welcomed = true;
+                            markLoggedIn();
+                        } else if (line.startsWith("Error") || line.startsWith("Vas demasiado")) {
+                            return; // Nombre rechazado: el servidor espera otro y la sesión no seguiría
+                        }
+                    } else if (line.startsWith("Error") || line.startsWith(" Error")) {
+                        errors.increment();
+                    } else if (!line.startsWith("(Mensaje a ")) {
+                        onLine(line);
+                    }
+                }
+            } catch (IOException e) {
+                if (welcomed && sending) {
+                    errors.increment();
+                }
+            } finally {
+                if (!welcomed) {
+                    failLogin();
+                }
+                markLoggedIn(); // No bloquea el arranque si esta sesión falló
+            }
+        }
+
+        private void failLogin() {
+            failed = true;
+            errors.increment();
+            loginFailures.increment();
+            close();
+        }
+
+        private void markLoggedIn() {
+            if (!counted) {
+                counted = true;
+                loggedIn.countDown();
+            }
+        }
+
+        /**
+         * Envía a ritmo rate/clients con una fase inicial aleatoria para no
+         * sincronizar a todas las sesiones.
+         */
+        private void sendLoop() {
+            if (out == null) {
+                return;
+            }
+            long interval = (long) (1e9 * clients / rate);
+            long next = System.nanoTime() + ThreadLocalRandom.current().nextLong(interval);
+            try {
+                while (sending && !failed) {
+                    long wait = next - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                        continue;
+                    }
+                    if (welcomed) {
+                        sendOne(); // Hasta entonces cualquier línea se tomaría por el nombre
+                    }
+                    next += interval;
+                }
+            } catch (IOException e) {
+                errors.increment();
+            }
+        }
+
+        private void sendOne() throws IOException {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int pick = random.nextInt(globalWeight + privateWeight + renameWeight);
+            if (pick < globalWeight) {
+                write(stamp());
+                sentGlobal.increment();
+            } else if (pick < globalWeight + privateWeight) {
+                int target = random.nextInt(clients - 1);
+                if (target >= id) {
+                    target++; // Nunca a sí mismo
+                }
+                write("/w " + names.get(target) + " " + stamp());
+                sentPrivate.increment();
+            } else {
+                // Alterna entre dos nombres para que /w siga encontrando a la sesión
+                renamed = !renamed;
+                String name = renamed ? baseName(id) + "b" : baseName(id);
+                write("/changename " + name);
+                names.set(id, name);
+                sentRename.increment();
+            }
+        }
+
+        private String stamp() {
+            StringBuilder text = new StringBuilder(messageSize + 32);
+            text.append(MARK).append(runId).append(':').append(System.nanoTime()).append(' ');
+            while (text.length() < messageSize) {
+                text.append('x');
+            }
+            return text.toString();
+        }
+
+        private void write(String line) throws IOException {
+            out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+
+        private void close() {
+            try {
+                if (socket != null) {
+                    socket.close();
+                }
+            } catch (IOException e) {
+                // Ya cerrada
+            }
+        }
+    }
+
+    /**
+     * Cuenta en bytesReceived lo que se lee del socket (antes de descomprimir).
+     */
+    private InputStream counting(InputStream raw) {
+        return new FilterInputStream(raw) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    bytesReceived.increment();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int read = super.read(b, off, len);
+                if (read > 0) {
+                    bytesReceived.add(read);
+                }
+                return read;
+            }
+        };
+    }
+
+    /**
+     * Lee una línea sin pasar por un Reader: lo que venga detrás (quizá ya
+     * comprimido) se queda en 'in'.
+     */
+    private static String readRawLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) >= 0 && b != '\n') {
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        if (b < 0 && line.size() == 0) {
+            throw new IOException("conexión cerrada");
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Busca la marca de tiempo de esta ejecución en una línea recibida.
+     */
+    private void onLine(String line) {
+        int mark = line.indexOf(MARK);
+        if (mark < 0 || !line.startsWith(runId, mark + MARK.length())) {
+            return; // Avisos del servidor o historial de otras ejecuciones
+        }
+        int start = mark + MARK.length() + runId.length() + 1;
+        int end = line.indexOf(' ', start);
+        long sentAt;
+        try {
+            sentAt = Long.parseLong(end < 0 ? line.substring(start) : line.substring(start, end));
+        } catch (NumberFormatException e) {
+            return;
+        }
+        delivered.increment();
+        if (sentAt >= measureFrom) {
+            latency.record(System.nanoTime() - sentAt);
+        }
+    }
+
+    private static String baseName(int id) {
+        return "carga" + id;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    /**
+     * Lee "global:80,private:15,rename:5" como pesos relativos.
+     */
+    private static int[] parseMix(String mix) {
+        int[] weights = new int[3];
+        for (String part : mix.split(",")) {
+            String[] pair = part.trim().split(":");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Valor inválido para --mix: " + mix);
+            }
+            int weight;
+            try {
+                weight = Math.max(0, Integer.parseInt(pair[1].trim()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Valor inválido para --mix: " + mix);
+            }
+            switch (pair[0].trim()) {
+                case "global" -> weights[0] = weight;
+                case "private" -> weights[1] = weight;
+                case "rename" -> weights[2] = weight;
+                default -> throw new IllegalArgumentException("Tipo desconocido en --mix: " + pair[0]);
+            }
+        }
+        if (weights[0] + weights[1] + weights[2] == 0) {
+            throw new IllegalArgumentException("--mix necesita algún peso mayor que 0");
+        }
+        return weights;
+    }
+}
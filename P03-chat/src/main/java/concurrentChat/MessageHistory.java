@@ -0,0 +1,106 @@
+package concurrentChat;
+
+import Handlers.EncodedMessage;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Últimos mensajes del chat (global o de una sala) en un buffer circular
+ * de tamaño fijo. Las ranuras se reservan al crearlo: añadir un mensaje
+ * solo guarda la referencia al EncodedMessage de la difusión y el ID del
+ * remitente, sin reservar memoria ni usar candados.
+ *
+ * Cada ranura guarda también el número de secuencia del mensaje; el lector
+ * lo comprueba antes y después de leer y descarta la ranura si un escritor
+ * la ha reutilizado mientras tanto. El escritor reserva la ranura con un CAS
+ * sobre esa secuencia: dos escritores a una vuelta de distancia no mezclan
+ * sus campos (el de la vuelta siguiente espera a que acabe el anterior).
+ *
+ * @author sergi
+ */
+public class MessageHistory {
+
+    /**
+     * Recibe cada mensaje del historial con el ID de su remitente (0 si no se conoce).
+     */
+    @FunctionalInterface
+    public interface Visitor {
+        void visit(int senderId, EncodedMessage message);
+    }
+
+    private static final long EMPTY = -1;
+    private static final long WRITING = -2;     // WRITING - s: la está escribiendo el mensaje s
+
+    private final int mask;
+    private final AtomicReferenceArray<EncodedMessage> messages;
+    private final AtomicIntegerArray senders;
+    private final AtomicLongArray sequences;
+    private final AtomicLong next = new AtomicLong();   // Secuencia del próximo mensaje
+
+    /**
+     * @param capacity mensajes que se conservan (se redondea a potencia de 2)
+     */
+    public MessageHistory(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.mask = size - 1;
+        this.messages = new AtomicReferenceArray<>(size);
+        this.senders = new AtomicIntegerArray(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, EMPTY);
+        }
+    }
+
+    /**
+     * Guarda un mensaje; si el buffer está lleno sustituye al más antiguo.
+     */
+    public void append(int senderId, EncodedMessage message) {
+        long sequence = next.getAndIncrement();
+        int slot = (int) (sequence & mask);
+        while (true) {
+            long current = sequences.get(slot);
+            long owner = current <= WRITING ? WRITING - current : current;
+            if (owner > sequence) {
+                return;                         // Ya es de una vuelta posterior: este mensaje estaría sobrescrito
+            }
+            if (current <= WRITING) {
+                Thread.onSpinWait();            // La vuelta anterior aún escribe
+            } else if (sequences.compareAndSet(slot, current, WRITING - sequence)) {
+                break;                          // Reservada: "en escritura" para los lectores
+            }
+        }
+        messages.set(slot, message);
+        senders.set(slot, senderId);
+        sequences.set(slot, sequence);
+    }
+
+    /**
+     * Entrega a 'visitor' (ID del remitente, mensaje) los últimos 'count'
+     * mensajes, del más antiguo al más reciente. Devuelve cuántos ha entregado.
+     */
+    public int forEachRecent(int count, Visitor visitor) {
+        long end = next.get();
+        long start = Math.max(0, end - Math.min(count, capacity()));
+        int delivered = 0;
+        for (long sequence = start; sequence < end; sequence++) {
+            int slot = (int) (sequence & mask);
+            if (sequences.get(slot) != sequence) {
+                continue;                       // Aún escribiéndose o ya sobrescrita
+            }
+            EncodedMessage message = messages.get(slot);
+            int sender = senders.get(slot);
+            if (sequences.get(slot) != sequence) {
+                continue;
+            }
+            visitor.visit(sender, message);
+            delivered++;
+        }
+        return delivered;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,433 @@
+package concurrentChat;
+
+import Handlers.EncodedMessage;
+import Handlers.OutboundQueue;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Registro persistente del chat: mensajes globales, de sala, privados y
+ * acciones de administrador se añaden a ficheros de segmento (".seg")
+ * escritos a través de un MappedByteBuffer.
+ *
+ * Los hilos de los clientes solo encolan el registro (cola sin candados);
+ * un único hilo escritor lo codifica y, cada --log-flush-ms, fuerza a disco
+ * todo lo acumulado de una vez (group commit), aunque la cola no llegue a
+ * vaciarse. Así el disco nunca está en el camino de broadcastMessage: si el
+ * escritor se queda --log-queue registros por detrás, los nuevos se
+ * descartan y se cuentan (chat_log_dropped_total).
+ *
+ * Formato de cada registro dentro de un segmento:
+ *   [longitud: int][tipo: 1 byte][hora: long][nº campos: 1 byte]
+ *   y por cada campo [bytes: short sin signo][UTF-8]
+ * donde la longitud cuenta todo lo que va detrás de ella. Una longitud 0
+ * marca el final de los datos del segmento.
+ *
+ * @author sergi
+ */
+public class MessageLog {
+
+    // --- Tipos de registro ---
+    public static final byte GLOBAL = 1;    // emisor, línea
+    public static final byte ROOM = 2;      // sala, emisor, línea
+    public static final byte PRIVATE = 3;   // emisor, destinatario, texto
+    public static final byte BLOCK = 4;     // IP o prefijo CIDR, administrador[, caducidad en ms]
+    public static final byte UNBLOCK = 5;   // IP o prefijo CIDR, administrador
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int MAX_FIELD_BYTES = 0xFFFF;
+    private static final int MIN_SEGMENT_SIZE = 1024 * 1024;
+    private static final long DROP_WARN_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Un registro pendiente de escribir.
+     */
+    private static final class Entry {
+        private final byte type;
+        private final long time;
+        private final String[] fields;
+
+        private Entry(byte type, long time, String... fields) {
+            this.type = type;
+            this.time = time;
+            this.fields = fields;
+        }
+    }
+
+    private final Path directory;               // null = registro desactivado
+    private final int segmentSize;
+    private final int retention;                // Segmentos que se conservan
+    private final long flushIntervalNanos;
+    private final OutboundQueue<Entry> pending;   // Llena: se descarta el registro nuevo
+
+    // --- Estado del hilo escritor ---
+    private final Deque<Path> segments = new ArrayDeque<>();
+    private long lastSegmentIndex = 0;
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private BlockList blockList = new BlockList();          // Se copia al abrir cada segmento
+    private long reportedDrops = 0;
+    private long lastDropWarning = System.nanoTime() - DROP_WARN_NANOS;
+    private Thread writer;
+    private volatile boolean running = false;
+
+    private MessageLog(Path directory, int segmentSize, int retention, long flushIntervalNanos, int queueCapacity) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.retention = retention;
+        this.flushIntervalNanos = flushIntervalNanos;
+        this.pending = new OutboundQueue<>(queueCapacity, OutboundQueue.OverflowPolicy.DROP_NEWEST);
+    }
+
+    /**
+     * Abre (o crea) el directorio del registro según la configuración.
+     * Con --log-dir vacío devuelve un registro desactivado.
+     */
+    public static MessageLog open(ServerConfig config) throws IOException {
+        String dir = config.logDirectory();
+        if (dir.isEmpty()) {
+            return disabled();
+        }
+        Path directory = Paths.get(dir);
+        Files.createDirectories(directory);
+        long segmentSize = Math.max(MIN_SEGMENT_SIZE, config.logSegmentMegabytes() * 1024L * 1024L);
+        return new MessageLog(directory, (int) Math.min(segmentSize, Integer.MAX_VALUE),
+                config.logRetention(), TimeUnit.MILLISECONDS.toNanos(config.logFlushMillis()), config.logQueue());
+    }
+
+    /**
+     * Registro que no guarda nada (pruebas, benchmarks o --log-dir=).
+     */
+    public static MessageLog disabled() {
+        return new MessageLog(null, 0, 0, 0, 1);
+    }
+
+    public boolean isEnabled() {
+        return directory != null;
+    }
+
+    // --- ARRANQUE ---
+
+    /**
+     * Recorre los segmentos en orden y reconstruye la lista de bloqueo y el
+     * historial global. Debe llamarse antes de start(). Devuelve cuántos
+     * registros ha leído.
+     */
+    public long recover(MessageHistory history, BlockList blockList) throws IOException {
+        this.blockList = blockList;
+        if (!isEnabled()) {
+            return 0;
+        }
+        long records = 0;
+        for (Path file : listSegments()) {
+            segments.addLast(file);
+            lastSegmentIndex = Math.max(lastSegmentIndex, segmentIndex(file));
+            try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+                MappedByteBuffer data = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+                records += replaySegment(data, history, blockList);
+            }
+        }
+        return records;
+    }
+
+    private static long replaySegment(ByteBuffer data, MessageHistory history, BlockList blockList) {
+        long records = 0;
+        while (data.remaining() >= Integer.BYTES) {
+            int length = data.getInt();
+            if (length <= 0 || length > data.remaining()) {
+                break; // Fin de los datos (o registro a medio escribir)
+            }
+            int end = data.position() + length;
+            byte type = data.get();
+            data.getLong(); // Hora: de momento no se usa al reconstruir
+            String[] fields = new String[data.get()];
+            for (int i = 0; i < fields.length; i++) {
+                byte[] bytes = new byte[Short.toUnsignedInt(data.getShort())];
+                data.get(bytes);
+                fields[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            data.position(end);
+            records++;
+
+            switch (type) {
+                case GLOBAL -> history.append(0, EncodedMessage.of(fields[1])); // IDs de sesiones anteriores: sin filtro
+                case BLOCK -> replayBlock(blockList, fields);
+                case UNBLOCK -> replayUnblock(blockList, fields);
+                default -> {
+                    // Salas y privados solo quedan como registro
+                }
+            }
+        }
+        return records;
+    }
+
+    private static void replayBlock(BlockList blockList, String[] fields) {
+        try {
+            // Los registros antiguos no llevan caducidad: bloqueo permanente
+            long expiresAt = fields.length > 2 ? Long.parseLong(fields[2]) : BlockList.PERMANENT;
+            if (expiresAt > System.currentTimeMillis()) {
+                blockList.block(fields[0], expiresAt);
+            }
+        } catch (IllegalArgumentException e) {
+            System.getLogger(MessageLog.class.getName()).log(System.Logger.Level.WARNING, "Bloqueo ilegible en el registro: " + fields[0]);
+        }
+    }
+
+    private static void replayUnblock(BlockList blockList, String[] fields) {
+        try {
+            blockList.unblock(fields[0]);
+        } catch (IllegalArgumentException e) {
+            System.getLogger(MessageLog.class.getName()).log(System.Logger.Level.WARNING, "Desbloqueo ilegible en el registro: " + fields[0]);
+        }
+    }
+
+    /**
+     * Abre un segmento nuevo y arranca el hilo escritor.
+     */
+    public void start() throws IOException {
+        if (!isEnabled()) {
+            return;
+        }
+        rollSegment();
+        running = true;
+        writer = new Thread(this::writeLoop, "chat-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Escribe lo pendiente, lo fuerza a disco y detiene el hilo escritor.
+     */
+    public void close() {
+        if (writer == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // --- REGISTRO (lo llaman los hilos de los clientes) ---
+
+    public void global(String sender, String line) {
+        append(new Entry(GLOBAL, System.currentTimeMillis(), sender, line));
+    }
+
+    public void room(String room, String sender, String line) {
+        append(new Entry(ROOM, System.currentTimeMillis(), room, sender, line));
+    }
+
+    public void privateMessage(String sender, String target, String text) {
+        append(new Entry(PRIVATE, System.currentTimeMillis(), sender, target, text));
+    }
+
+    public void block(String prefix, String admin, long expiresAt) {
+        append(new Entry(BLOCK, System.currentTimeMillis(), prefix, admin, Long.toString(expiresAt)));
+    }
+
+    public void unblock(String prefix, String admin) {
+        append(new Entry(UNBLOCK, System.currentTimeMillis(), prefix, admin));
+    }
+
+    private void append(Entry entry) {
+        if (isEnabled()) {
+            pending.offer(entry); // Cola llena: el disco no da abasto y se descarta
+        }
+    }
+
+    /**
+     * Registros descartados porque el escritor iba --log-queue por detrás.
+     */
+    public long dropped() {
+        return pending.dropped();
+    }
+
+    // --- HILO ESCRITOR ---
+
+    private void writeLoop() {
+        boolean dirty = false;
+        long lastForce = System.nanoTime();
+        while (true) {
+            Entry entry = pending.poll();
+            if (entry == null) {
+                if (dirty) {
+                    segment.force(); // Un solo force() por lote
+                    dirty = false;
+                }
+                lastForce = System.nanoTime();
+                warnDrops(lastForce);
+                if (!running) {
+                    break;
+                }
+                LockSupport.parkNanos(this, flushIntervalNanos);
+                continue;
+            }
+            try {
+                write(entry);
+                dirty = true;
+            } catch (IOException e) {
+                System.getLogger(MessageLog.class.getName()).log(System.Logger.Level.ERROR, "Error al escribir el registro", e);
+            }
+            // Con tráfico continuo la cola no se vacía: también se fuerza cada --log-flush-ms
+            long now = System.nanoTime();
+            if (dirty && now - lastForce >= flushIntervalNanos) {
+                segment.force();
+                dirty = false;
+                lastForce = now;
+                warnDrops(now);
+            }
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.getLogger(MessageLog.class.getName()).log(System.Logger.Level.ERROR, "Error al cerrar el segmento", e);
+        }
+    }
+
+    /**
+     * Avisa de los registros descartados, como mucho una vez por segundo.
+     */
+    private void warnDrops(long now) {
+        long drops = pending.dropped();
+        if (drops > reportedDrops && now - lastDropWarning >= DROP_WARN_NANOS) {
+            System.getLogger(MessageLog.class.getName()).log(System.Logger.Level.WARNING,
+                    (drops - reportedDrops) + " registros descartados (cola del registro llena)");
+            reportedDrops = drops;
+            lastDropWarning = now;
+        }
+    }
+
+    private void write(Entry entry) throws IOException {
+        byte[][] fields = encode(entry);
+        int length = recordLength(fields);
+
+        // Deja siempre sitio para la marca de fin (longitud 0). Tras abrir
+        // otro segmento siempre cabe: rollSegment deja sitio de sobra
+        if (segment.remaining() < Integer.BYTES + length + Integer.BYTES) {
+            rollSegment();
+        }
+        put(entry, fields, length);
+    }
+
+    /**
+     * Campos en UTF-8, recortados a MAX_FIELD_BYTES sin partir un carácter.
+     */
+    private static byte[][] encode(Entry entry) {
+        byte[][] fields = new byte[entry.fields.length][];
+        for (int i = 0; i < fields.length; i++) {
+            byte[] bytes = entry.fields[i].getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > MAX_FIELD_BYTES) {
+                int end = MAX_FIELD_BYTES;
+                while (end > 0 && (bytes[end] & 0xC0) == 0x80) {
+                    end--; // bytes[end] continúa un carácter: el corte va antes de su inicio
+                }
+                bytes = Arrays.copyOf(bytes, end);
+            }
+            fields[i] = bytes;
+        }
+        return fields;
+    }
+
+    /**
+     * Bytes del registro detrás de su longitud.
+     */
+    private static int recordLength(byte[][] fields) {
+        int length = 1 + Long.BYTES + 1;
+        for (byte[] field : fields) {
+            length += Short.BYTES + field.length;
+        }
+        return length;
+    }
+
+    private void put(Entry entry, byte[][] fields, int length) {
+        // El cuerpo primero y la longitud al final: un registro a medias se lee como fin
+        int start = segment.position();
+        segment.position(start + Integer.BYTES);
+        segment.put(entry.type);
+        segment.putLong(entry.time);
+        segment.put((byte) fields.length);
+        for (byte[] field : fields) {
+            segment.putShort((short) field.length);
+            segment.put(field);
+        }
+        segment.putInt(start, length);
+    }
+
+    /**
+     * Cierra el segmento actual, abre el siguiente y aplica la retención.
+     * El nuevo segmento empieza con una copia de la lista de bloqueo, así
+     * borrar segmentos antiguos nunca pierde un bloqueo. Si la copia no deja
+     * al menos medio segmento libre, ese segmento se hace más grande: la
+     * copia nunca se parte ni obliga a abrir otro.
+     */
+    private void rollSegment() throws IOException {
+        if (channel != null) {
+            segment.force();
+            channel.close();
+        }
+        long now = System.currentTimeMillis();
+        List<Entry> blocks = new ArrayList<>();
+        long blockBytes = 0;
+        for (BlockList.Entry block : blockList.snapshot()) {
+            Entry entry = new Entry(BLOCK, now, block.getPrefix(), "", Long.toString(block.getExpiresAt()));
+            blocks.add(entry);
+            blockBytes += Integer.BYTES + recordLength(encode(entry));
+        }
+        long size = Math.min(Integer.MAX_VALUE, Math.max(segmentSize, blockBytes + segmentSize / 2));
+
+        lastSegmentIndex++;
+        Path file = directory.resolve(String.format("%016d%s", lastSegmentIndex, SEGMENT_SUFFIX));
+        channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        segments.addLast(file);
+
+        while (segments.size() > retention) {
+            Files.deleteIfExists(segments.removeFirst());
+        }
+
+        for (Entry entry : blocks) {
+            byte[][] fields = encode(entry);
+            put(entry, fields, recordLength(fields));
+        }
+    }
+
+    private List<Path> listSegments() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files); // Los nombres llevan ceros a la izquierda: orden de creación
+        return files;
+    }
+
+    private static long segmentIndex(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
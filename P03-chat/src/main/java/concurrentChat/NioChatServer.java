@@ -0,0 +1,90 @@
+package concurrentChat;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Motor no bloqueante del servidor de chat.
+ * Un hilo acepta conexiones y las reparte entre unos pocos EventLoop
+ * (uno por núcleo), en lugar de dedicar un hilo a cada cliente.
+ *
+ * @author sergi
+ */
+public class NioChatServer {
+
+    private final ServerContext context;
+    private final EventLoop[] loops;
+    private int nextLoop = 0;
+
+    public NioChatServer(ServerContext context) throws IOException {
+        this.context = context;
+        this.loops = new EventLoop[context.getConfig().workers()];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(context);
+        }
+    }
+
+    /**
+     * Arranca los hilos de eventos y acepta conexiones hasta el apagado ordenado.
+     */
+    public void start() throws IOException {
+        Thread[] threads = new Thread[loops.length];
+        for (int i = 0; i < loops.length; i++) {
+            threads[i] = new Thread(loops[i], "nio-loop-" + i);
+            threads[i].start();
+        }
+        GracefulShutdown shutdown = context.getShutdown();
+        shutdown.setWorkers(timeoutMillis -> {
+            for (EventLoop loop : loops) {
+                loop.shutdown();
+            }
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            for (Thread thread : threads) {
+                thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+            }
+        });
+
+        int port = context.getConfig().port();
+
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(port));
+            shutdown.setAcceptor(server);
+            System.err.println("Server active in localhost:" + port + " (NIO, " + loops.length + " hilos de eventos)");
+
+            while (!shutdown.isDraining()) {
+                // La aceptación es bloqueante; solo las conexiones aceptadas usan el Selector
+                SocketChannel channel;
+                try {
+                    channel = server.accept();
+                } catch (ClosedChannelException e) {
+                    if (shutdown.isDraining()) {
+                        return; // Cerrado por el apagado ordenado
+                    }
+                    throw e;
+                }
+                InetAddress clientAddress = channel.socket().getInetAddress();
+
+                // Verifica si la IP del cliente está en la lista de bloqueo.
+                if (context.isBlocked(clientAddress)) {
+                    ChatLog.warn("Conexión rechazada: IP bloqueada -> " + clientAddress.getHostAddress());
+                    context.getMetrics().connectionRejected();
+                    channel.close();
+                    continue;
+                }
+                context.getMetrics().connectionAccepted();
+
+                if (ChatLog.isEnabled(ChatLog.Level.DEBUG)) {
+                    ChatLog.debug("New client IP:" + clientAddress.getHostAddress());
+                }
+
+                // Reparte las conexiones entre los hilos de eventos (round-robin)
+                loops[nextLoop].register(channel);
+                nextLoop = (nextLoop + 1) % loops.length;
+            }
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package concurrentChat;
+
+import Handlers.ClientConnection;
+import Handlers.ClientHandler;
+import Handlers.EncodedMessage;
+import Handlers.OutboundQueue;
+import Handlers.StreamCompressor;
+import Handlers.WireProtocol;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Conexión de un cliente atendida por un EventLoop.
+ * Las escrituras de otros hilos se encolan y el hilo de eventos las vuelca
+ * al canal cuando este admite más datos, con una escritura con varios
+ * buffers (gathering write) de hasta --write-batch mensajes por llamada.
+ * Con --write-delay-us el volcado se aplaza ese margen para juntar más.
+ * Si el cliente negoció compresión, cada lote se comprime en un solo buffer
+ * con un SYNC_FLUSH al final (ver StreamCompressor).
+ *
+ * @author sergi
+ */
+public class NioConnection implements ClientConnection {
+
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final EventLoop loop;
+    private final InetAddress address;
+    private InboundDecoder decoder;             // Se elige con el primer byte recibido
+    private volatile boolean binary = false;    // Protocolo binario negociado
+
+    // Mensajes pendientes de escribir (cualquier hilo encola, solo el hilo de eventos escribe)
+    private final OutboundQueue<EncodedMessage> pending;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+    // Lote que se está escribiendo: [batchStart, batchEnd) aún tienen bytes.
+    // Los mensajes salen de la cola antes de escribirse para que DROP_OLDEST
+    // nunca descarte una línea a medio enviar
+    private final ByteBuffer[] batch;
+    private int batchStart = 0;
+    private int batchEnd = 0;
+    private final long writeDelayNanos;
+    private volatile int compressLevel = 0;     // Nivel pedido con enableCompression()
+    private StreamCompressor compressor;        // null = sin comprimir
+
+    private ClientHandler handler;
+    private final ServerMetrics metrics;
+
+    public NioConnection(SocketChannel channel, SelectionKey key, EventLoop loop, int queueCapacity,
+                         OutboundQueue.OverflowPolicy overflowPolicy, int writeBatch, long writeDelayNanos,
+                         ServerMetrics metrics) {
+        this.channel = channel;
+        this.batch = new ByteBuffer[writeBatch];
+        this.writeDelayNanos = writeDelayNanos;
+        this.metrics = metrics;
+        this.key = key;
+        this.loop = loop;
+        this.address = channel.socket().getInetAddress();
+        this.pending = new OutboundQueue<>(queueCapacity, overflowPolicy);
+    }
+
+    void setHandler(ClientHandler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public void send(EncodedMessage message) {
+        if (!channel.isOpen()) {
+            return;
+        }
+        if (binary) {
+            message = message.asFrame();
+        }
+        if (!pending.offer(message)) {
+            ChatLog.warn("Cliente lento desconectado (cola de salida llena): " + address.getHostAddress());
+            loop.execute(this::closeNow);
+            return;
+        }
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        // Un solo aviso al hilo de eventos por ráfaga de mensajes
+        if (flushScheduled.compareAndSet(false, true)) {
+            if (writeDelayNanos > 0) {
+                loop.schedule(this::flush, writeDelayNanos);
+            } else {
+                loop.execute(this::flush);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        // Se ejecuta después de los envíos ya encolados, así el último mensaje sale antes del cierre
+        loop.execute(this::closeNow);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        loop.execute(task);
+    }
+
+    @Override
+    public void enableBinaryFraming() {
+        binary = true;
+    }
+
+    @Override
+    public void enableCompression(int level) {
+        compressLevel = level;
+        // El volcado empieza a comprimir al llegar a la marca, detrás de lo ya encolado;
+        // la marca no pasa por la política de desbordamiento: perderla mezclaría texto y deflate
+        pending.offerMarker(EncodedMessage.START_COMPRESSION);
+        scheduleFlush();
+    }
+
+    @Override
+    public InetAddress getInetAddress() {
+        return address;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return pending.depth();
+    }
+
+    @Override
+    public long getDroppedMessages() {
+        return pending.dropped();
+    }
+
+    // --- Métodos ejecutados solo en el hilo de eventos ---
+
+    /**
+     * Lee lo disponible en el canal y entrega las líneas completas al manejador.
+     */
+    void onReadable(ByteBuffer readBuffer) {
+        try {
+            readBuffer.clear();
+            int read = channel.read(readBuffer);
+            if (read < 0) {
+                closeNow(); // El cliente cerró la conexión
+                return;
+            }
+            readBuffer.flip();
+            if (decoder == null && readBuffer.hasRemaining()) {
+                decoder = detectProtocol(readBuffer.get(0));
+            }
+            if (decoder != null) {
+                decoder.feed(readBuffer, handler::onLine);
+            }
+        } catch (IOException ex) {
+            ChatLog.info("Cliente desconectado (Error): " + ex.getMessage());
+            closeNow();
+        }
+    }
+
+    /**
+     * Elige el decodificador según el primer byte (ver WireProtocol).
+     */
+    private InboundDecoder detectProtocol(byte firstByte) throws IOException {
+        if (!WireProtocol.isBinaryStart(firstByte)) {
+            return new LineDecoder(MAX_LINE_LENGTH);
+        }
+        // El saludo en texto ya encolado sale antes de cambiar de modo
+        writePending();
+        enableBinaryFraming();
+        return new FrameDecoder();
+    }
+
+    void onWritable() {
+        flush();
+    }
+
+    private void flush() {
+        flushScheduled.set(false);
+        if (!channel.isOpen()) {
+            return;
+        }
+        try {
+            writePending();
+        } catch (IOException ex) {
+            closeNow();
+        }
+    }
+
+    /**
+     * Escribe todo lo posible sin bloquear, un lote por llamada; si el socket
+     * se llena, espera a OP_WRITE con el resto del lote guardado.
+     */
+    private void writePending() throws IOException {
+        while (true) {
+            if (batchStart == batchEnd) {
+                batchStart = 0;
+                batchEnd = 0;
+                boolean startCompression = false;
+                EncodedMessage next;
+                while (batchEnd < batch.length && (next = pending.poll()) != null) {
+                    if (next == EncodedMessage.START_COMPRESSION) {
+                        startCompression = true; // Este lote sale sin comprimir; los siguientes, comprimidos
+                        break;
+                    }
+                    batch[batchEnd++] = next.buffer();
+                }
+                if (compressor != null && batchEnd > 0) {
+                    compressBatch();
+                }
+                if (startCompression) {
+                    compressor = new StreamCompressor(compressLevel);
+                    metrics.compressionStarted();
+                }
+                if (batchEnd == 0) {
+                    if (startCompression) {
+                        continue;
+                    }
+                    break;
+                }
+            }
+            metrics.bytesWritten(channel.write(batch, batchStart, batchEnd - batchStart));
+            metrics.socketWrite();
+            while (batchStart < batchEnd && !batch[batchStart].hasRemaining()) {
+                batch[batchStart++] = null;
+            }
+            if (batchStart < batchEnd) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    /**
+     * Sustituye los mensajes del lote por un único buffer comprimido.
+     */
+    private void compressBatch() {
+        for (int i = 0; i < batchEnd; i++) {
+            compressor.add(batch[i]);
+            batch[i] = null;
+        }
+        long raw = compressor.pendingInput();
+        batch[0] = compressor.flush();
+        batchEnd = 1;
+        metrics.compressed(raw, batch[0].remaining());
+    }
+
+    void closeNow() {
+        if (!channel.isOpen()) {
+            return;
+        }
+        try {
+            writePending(); // Último intento de entregar lo pendiente
+        } catch (IOException ignored) {
+            // El cliente ya no está; se cierra de todos modos
+        }
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.getLogger(NioConnection.class.getName()).log(System.Logger.Level.ERROR, "Error al cerrar canal", e);
+        }
+        Arrays.fill(batch, null);
+        batchStart = 0;
+        batchEnd = 0;
+        if (compressor != null) {
+            compressor.end();
+            compressor = null;
+        }
+        pending.clear();
+        handler.connectionClosed();
+    }
+}
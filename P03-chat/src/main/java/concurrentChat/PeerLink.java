@@ -0,0 +1,261 @@
+package concurrentChat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Enlace de salida hacia otro nodo del clúster. Un hilo propio conecta (y
+ * reconecta) y escribe los registros en lotes: todo lo pendiente, hasta
+ * --cluster-batch registros, en una sola escritura.
+ *
+ * Cada registro lleva un número de secuencia y se guarda en un anillo de
+ * --cluster-retain entradas. Si la conexión se corta, al volver el otro nodo
+ * dice cuál fue el último que recibió y se reenvía desde ahí; él descarta
+ * los repetidos. Lo que no cabe en el anillo mientras el enlace está caído
+ * se pierde (y se cuenta).
+ *
+ * @author sergi
+ */
+public class PeerLink implements Runnable {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+    private static final long MIN_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 2000;
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final Cluster.Peer peer;
+    private final int nodeId;               // Este nodo
+    private final long incarnation;         // Arranque de este nodo (lo distingue de uno reiniciado)
+    private final Consumer<PeerLink> onConnected;
+    private final ServerMetrics metrics;
+    private final int batchSize;
+    private final byte[][] ring;            // Registros por secuencia (seq & mask)
+    private final int mask;
+
+    // --- Protegido por 'this' ---
+    private long nextSeq = 1;               // Secuencia del próximo registro
+    private long sentSeq = 0;               // Último registro escrito (o que ya no hay que escribir)
+    private long peerIncarnation = 0;       // Arranque del otro nodo (0 = aún no lo conocemos)
+    private boolean closed = false;
+
+    private volatile boolean connected = false;
+    private volatile Socket socket;
+    private Thread thread;
+
+    public PeerLink(Cluster.Peer peer, int nodeId, long incarnation, Consumer<PeerLink> onConnected,
+                    ServerMetrics metrics, int batchSize, int retain) {
+        this.peer = peer;
+        this.nodeId = nodeId;
+        this.incarnation = incarnation;
+        this.onConnected = onConnected;
+        this.metrics = metrics;
+        this.batchSize = batchSize;
+        this.ring = new byte[Integer.highestOneBit(retain - 1) << 1][];   // Potencia de 2 >= retain
+        this.mask = ring.length - 1;
+    }
+
+    public void start() {
+        thread = new Thread(this, "cluster-link-" + peer.getNodeId());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public Cluster.Peer getPeer() {
+        return peer;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * Encola un registro ya codificado. El mismo array puede ir a varios
+     * enlaces: nadie lo modifica después.
+     */
+    public synchronized void send(byte[] record) {
+        if (closed) {
+            return;
+        }
+        ring[(int) (nextSeq & mask)] = record;
+        nextSeq++;
+        if (nextSeq - 1 - sentSeq > ring.length) {
+            // El anillo ha pisado un registro que aún no se había escrito
+            sentSeq++;
+            metrics.clusterRecordLost();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Deja de aceptar registros, escribe lo pendiente durante como mucho
+     * 'timeoutMillis' y cierra la conexión.
+     */
+    public void close(long timeoutMillis) throws InterruptedException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        if (thread == null) {
+            return;
+        }
+        if (!connected) {
+            thread.interrupt(); // Está esperando para reconectar
+        }
+        thread.join(Math.max(1, timeoutMillis));
+        Socket current = socket;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                // Ya cerrado
+            }
+        }
+    }
+
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    // --- HILO DEL ENLACE ---
+
+    @Override
+    public void run() {
+        long backoff = MIN_BACKOFF_MILLIS;
+        while (!isClosed()) {
+            try (Socket s = new Socket()) {
+                s.connect(new InetSocketAddress(peer.getHost(), peer.getPort()), CONNECT_TIMEOUT_MILLIS);
+                s.setTcpNoDelay(true);
+                socket = s;
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), BUFFER_BYTES));
+                DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                handshake(out, in);
+                Thread.ofVirtual().name("cluster-watch-" + peer.getNodeId()).start(() -> watch(s, in));
+                connected = true;
+                backoff = MIN_BACKOFF_MILLIS;
+                ChatLog.info("Enlace con el nodo " + peer.getNodeId() + " (" + peer + ") establecido");
+                onConnected.accept(this);
+                pump(s, out);
+            } catch (IOException e) {
+                if (connected) {
+                    ChatLog.warn("Enlace con el nodo " + peer.getNodeId() + " caído: " + e.getMessage());
+                }
+            } finally {
+                connected = false;
+                socket = null;
+            }
+            if (isClosed()) {
+                return;
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                return;
+            }
+            backoff = Math.min(MAX_BACKOFF_MILLIS, backoff * 2);
+        }
+    }
+
+    /**
+     * Se presenta y decide desde dónde seguir: si el otro nodo es el mismo
+     * proceso que antes, desde el último registro que recibió; si es nuevo
+     * (o el primer contacto), desde ahora: lo anterior no es para él y el
+     * directorio se lo manda onConnected.
+     */
+    private void handshake(DataOutputStream out, DataInputStream in) throws IOException {
+        out.writeInt(Cluster.MAGIC);
+        out.writeInt(nodeId);
+        out.writeLong(incarnation);
+        out.flush();
+        long remoteIncarnation = in.readLong();
+        long remoteLastSeq = in.readLong();
+
+        synchronized (this) {
+            if (remoteIncarnation == peerIncarnation) {
+                long oldest = Math.max(0, nextSeq - 1 - ring.length);   // Último que ya no está en el anillo
+                if (remoteLastSeq < oldest) {
+                    metrics.clusterRecordsLost(oldest - remoteLastSeq);
+                }
+                sentSeq = Math.min(nextSeq - 1, Math.max(remoteLastSeq, oldest));
+            } else {
+                peerIncarnation = remoteIncarnation;
+                sentSeq = nextSeq - 1;
+            }
+        }
+    }
+
+    /**
+     * El otro nodo no escribe después del saludo: leer solo sirve para notar
+     * enseguida que se ha caído, aunque este enlace no tenga nada que enviar.
+     */
+    private void watch(Socket s, DataInputStream in) {
+        try {
+            while (in.read() >= 0) {
+                // Nada que leer
+            }
+        } catch (IOException e) {
+            // Conexión cerrada por cualquiera de los dos lados
+        }
+        try {
+            s.close();
+        } catch (IOException e) {
+            // Ya cerrado
+        }
+        synchronized (this) {
+            notifyAll(); // Despierta a pump() para que reconecte
+        }
+    }
+
+    /**
+     * Escribe lotes mientras la conexión aguante. Al cerrar, vacía lo pendiente y vuelve.
+     */
+    private void pump(Socket s, DataOutputStream out) throws IOException {
+        byte[][] batch = new byte[batchSize][];
+        while (true) {
+            long first;
+            int count;
+            synchronized (this) {
+                while (!closed && sentSeq + 1 == nextSeq) {
+                    if (s.isClosed()) {
+                        throw new IOException("el nodo cerró la conexión");
+                    }
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (sentSeq + 1 == nextSeq) {
+                    return; // Cerrado y sin nada pendiente
+                }
+                first = sentSeq + 1;
+                count = (int) Math.min(batchSize, nextSeq - first);
+                for (int i = 0; i < count; i++) {
+                    batch[i] = ring[(int) ((first + i) & mask)];
+                }
+            }
+
+            // Lote: número de registros y, por cada uno, secuencia, longitud y bytes
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                out.writeLong(first + i);
+                out.writeInt(batch[i].length);
+                out.write(batch[i]);
+            }
+            out.flush();
+            Arrays.fill(batch, 0, count, null);
+            metrics.clusterBatchOut(count);
+
+            synchronized (this) {
+                sentSeq = Math.max(sentSeq, first + count - 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package concurrentChat;
+
+import Handlers.ClientHandler;
+import Handlers.EncodedMessage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Quién está conectado en este nodo: una foto inmutable y versionada de los
+ * usuarios, ordenada por nombre, para /who y para los clientes suscritos con
+ * /presence.
+ *
+ * Copia en escritura: entrar, salir o cambiar de nombre construye la foto
+ * siguiente a partir de la anterior (inserción o borrado en un array
+ * ordenado) y la publica en un volatile. Leerla no bloquea ni recorre la
+ * lista de clientes, así que /who cuesta lo mismo que la página que enseña.
+ * Las entradas se identifican por el ID de sesión, no por el nombre: un
+ * nombre que se acaba de liberar puede estar un instante en dos entradas.
+ *
+ * Cada cambio sube la versión y deja un evento compacto ("+id nombre",
+ * "-id", "~id nombre"). Los eventos se juntan durante --presence-batch-ms y
+ * salen en un solo lote a los suscritos:
+ *
+ *     /presence <versión> <n>
+ *     +<id> <nombre>            (n líneas de eventos)
+ *
+ * Al suscribirse se recibe la foto entera con la misma forma y un "*" al
+ * final de la cabecera ("/presence <versión> <n> *"), que sustituye a lo que
+ * se tuviera. El nombre es todo lo que sigue al primer espacio.
+ *
+ * Cada foto o lote se codifica una vez, fuera del candado, como un solo
+ * mensaje de varias líneas (EncodedMessage.join): ocupa un hueco en la cola
+ * de salida del suscrito por muchos usuarios o eventos que lleve, y dentro
+ * del candado solo queda encolarlo.
+ *
+ * @author sergi
+ */
+public class Presence {
+
+    /**
+     * Cabecera de cada lote de eventos (y comando para suscribirse).
+     */
+    public static final String DELTA = "/presence";
+
+    private static final Comparator<String> ORDER = String.CASE_INSENSITIVE_ORDER;
+
+    /**
+     * Usuarios conectados en una versión concreta, ordenados por nombre.
+     * Nunca cambia: los arrays no salen de aquí.
+     */
+    public static final class Snapshot {
+        private final long version;
+        private final int[] ids;
+        private final String[] names;
+
+        private Snapshot(long version, int[] ids, String[] names) {
+            this.version = version;
+            this.ids = ids;
+            this.names = names;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public int size() {
+            return names.length;
+        }
+
+        public int getId(int index) {
+            return ids[index];
+        }
+
+        public String getName(int index) {
+            return names[index];
+        }
+
+        /**
+         * Posición del usuario 'id', o -1. Recorre los IDs, pero cada cambio
+         * ya copia el array entero: no cambia el coste.
+         */
+        private int indexOf(int id) {
+            for (int i = 0; i < ids.length; i++) {
+                if (ids[i] == id) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private Snapshot insert(long newVersion, int id, String name) {
+            int at = Arrays.binarySearch(names, name, ORDER);
+            if (at < 0) {
+                at = -(at + 1);
+            }
+            int[] newIds = new int[ids.length + 1];
+            String[] newNames = new String[names.length + 1];
+            System.arraycopy(ids, 0, newIds, 0, at);
+            System.arraycopy(names, 0, newNames, 0, at);
+            newIds[at] = id;
+            newNames[at] = name;
+            System.arraycopy(ids, at, newIds, at + 1, ids.length - at);
+            System.arraycopy(names, at, newNames, at + 1, names.length - at);
+            return new Snapshot(newVersion, newIds, newNames);
+        }
+
+        private Snapshot remove(long newVersion, int at) {
+            int[] newIds = new int[ids.length - 1];
+            String[] newNames = new String[names.length - 1];
+            System.arraycopy(ids, 0, newIds, 0, at);
+            System.arraycopy(names, 0, newNames, 0, at);
+            System.arraycopy(ids, at + 1, newIds, at, ids.length - at - 1);
+            System.arraycopy(names, at + 1, newNames, at, names.length - at - 1);
+            return new Snapshot(newVersion, newIds, newNames);
+        }
+    }
+
+    private record Event(long version, EncodedMessage line) {
+    }
+
+    private final TimingWheel timers;
+    private final long batchMillis;
+    private final ServerMetrics metrics;
+
+    private volatile Snapshot current = new Snapshot(0, new int[0], new String[0]);
+
+    private final Object flushing = new Object();   // Un lote a la vez, en orden de versión
+
+    // --- Protegido por 'this' ---
+    private List<Event> pending = new ArrayList<>();
+    private final Map<ClientHandler, Long> subscribers = new IdentityHashMap<>(); // -> versión que ya tiene
+    private boolean flushScheduled = false;
+
+    public Presence(TimingWheel timers, long batchMillis, ServerMetrics metrics) {
+        this.timers = timers;
+        this.batchMillis = batchMillis;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Foto actual; se puede leer desde cualquier hilo sin bloquear.
+     */
+    public Snapshot snapshot() {
+        return current;
+    }
+
+    // --- CAMBIOS ---
+
+    /**
+     * Entra el usuario 'id'. Que ya estuviera es un error del llamador.
+     */
+    public void join(int id, String name) {
+        boolean flushNow;
+        synchronized (this) {
+            if (current.indexOf(id) >= 0) {
+                throw new IllegalStateException("El usuario " + id + " ya está en la foto de presencia");
+            }
+            current = current.insert(current.version + 1, id, name);
+            flushNow = record("+" + id + " " + name);
+        }
+        if (flushNow) {
+            flush();
+        }
+    }
+
+    /**
+     * Sale el usuario 'id'; 'handler' también deja de estar suscrito.
+     */
+    public void leave(int id, ClientHandler handler) {
+        boolean flushNow;
+        synchronized (this) {
+            subscribers.remove(handler);
+            int at = current.indexOf(id);
+            if (at < 0) {
+                return;
+            }
+            current = current.remove(current.version + 1, at);
+            flushNow = record("-" + id);
+        }
+        if (flushNow) {
+            flush();
+        }
+    }
+
+    /**
+     * El usuario 'id' pasa a llamarse 'newName'. Hay que llamarlo antes de
+     * liberar el nombre anterior en UserRegistry.
+     */
+    public void rename(int id, String newName) {
+        boolean flushNow;
+        synchronized (this) {
+            int at = current.indexOf(id);
+            if (at < 0) {
+                throw new IllegalStateException("El usuario " + id + " no está en la foto de presencia");
+            }
+            // Una sola versión nueva para el cambio, aunque sean dos pasos
+            long version = current.version + 1;
+            current = current.remove(version, at).insert(version, id, newName);
+            flushNow = record("~" + id + " " + newName);
+        }
+        if (flushNow) {
+            flush();
+        }
+    }
+
+    /**
+     * Guarda el evento para el próximo lote. Devuelve true si hay que
+     * enviarlo ya (--presence-batch-ms=0): el llamador lo hace al soltar el candado.
+     */
+    private boolean record(String line) {
+        pending.add(new Event(current.getVersion(), EncodedMessage.of(line)));
+        if (subscribers.isEmpty()) {
+            pending.clear(); // Nadie los espera: la foto ya tiene el cambio
+            return false;
+        }
+        if (batchMillis == 0) {
+            return true;
+        }
+        if (!flushScheduled) {
+            flushScheduled = true;
+            timers.schedule(batchMillis, TimeUnit.MILLISECONDS, this::flush);
+        }
+        return false;
+    }
+
+    // --- SUSCRIPCIONES ---
+
+    /**
+     * Envía la foto entera a 'handler' y, desde ahí, los lotes de eventos.
+     * Devuelve false si ya estaba suscrito.
+     */
+    public boolean subscribe(ClientHandler handler) {
+        while (true) {
+            Snapshot snapshot = current;
+            List<EncodedMessage> lines = new ArrayList<>(snapshot.size() + 1);
+            lines.add(EncodedMessage.of(DELTA + " " + snapshot.getVersion() + " " + snapshot.size() + " *"));
+            for (int i = 0; i < snapshot.size(); i++) {
+                lines.add(EncodedMessage.of("+" + snapshot.getId(i) + " " + snapshot.getName(i)));
+            }
+            EncodedMessage message = EncodedMessage.join(lines);
+            synchronized (this) {
+                if (subscribers.containsKey(handler)) {
+                    return false;
+                }
+                if (current == snapshot) {
+                    handler.sendMessage(message);
+                    // Los eventos pendientes ya están en la foto: no se le repiten
+                    subscribers.put(handler, snapshot.getVersion());
+                    return true;
+                }
+            }
+            // La foto cambió mientras se codificaba: un lote ya enviado podría faltarle
+        }
+    }
+
+    public synchronized boolean unsubscribe(ClientHandler handler) {
+        return subscribers.remove(handler) != null;
+    }
+
+    /**
+     * Envía los eventos pendientes a los suscritos, en un mensaje por cliente.
+     * Corre en la rueda de temporizadores (o en quien registra el cambio con
+     * --presence-batch-ms=0): solo encola, no escribe.
+     */
+    private void flush() {
+        synchronized (flushing) {
+            List<Event> batch;
+            synchronized (this) {
+                flushScheduled = false;
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                pending = new ArrayList<>();
+            }
+            // El lote sale de 'pending' con versiones seguidas hasta la última
+            long version = batch.get(batch.size() - 1).version();
+            long first = batch.get(0).version();
+            EncodedMessage whole = encode(version, batch);
+
+            synchronized (this) {
+                int sent = 0;
+                for (Map.Entry<ClientHandler, Long> subscriber : subscribers.entrySet()) {
+                    long seen = subscriber.getValue();
+                    if (seen >= version) {
+                        continue; // Se suscribió después: su foto ya lo tiene
+                    }
+                    if (seen < first) {
+                        subscriber.getKey().sendMessage(whole);
+                    } else {
+                        // Se suscribió a mitad de lote: solo lo posterior a su foto
+                        subscriber.getKey().sendMessage(encode(version, batch.subList(batch.size() - (int) (version - seen), batch.size())));
+                    }
+                    subscriber.setValue(version);
+                    sent++;
+                }
+                metrics.presenceBatch(batch.size(), sent);
+            }
+        }
+    }
+
+    private static EncodedMessage encode(long version, List<Event> events) {
+        List<EncodedMessage> lines = new ArrayList<>(events.size() + 1);
+        lines.add(EncodedMessage.of(DELTA + " " + version + " " + events.size()));
+        for (Event event : events) {
+            lines.add(event.line());
+        }
+        return EncodedMessage.join(lines);
+    }
+}
@@ -0,0 +1,42 @@
+package concurrentChat;
+
+import Handlers.ClientHandler;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Una sala del chat con su propio conjunto de miembros.
+ * Los mensajes de la sala solo recorren este conjunto, no la lista global.
+ *
+ * @author sergi
+ */
+public class Room {
+
+    private final String name;                  // Nombre tal como lo escribió quien la creó
+    private final Set<ClientHandler> members = ConcurrentHashMap.newKeySet();
+    private final MessageHistory history;       // Últimos mensajes de la sala
+
+    Room(String name, int historyCapacity) {
+        this.name = name;
+        this.history = new MessageHistory(historyCapacity);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Miembros actuales; se puede recorrer mientras otros entran y salen.
+     */
+    public Set<ClientHandler> getMembers() {
+        return members;
+    }
+
+    public MessageHistory getHistory() {
+        return history;
+    }
+
+    public int size() {
+        return members.size();
+    }
+}
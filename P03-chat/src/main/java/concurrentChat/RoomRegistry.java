@@ -0,0 +1,70 @@
+package concurrentChat;
+
+import Handlers.ClientHandler;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Salas abiertas (sin distinguir mayúsculas). Una sala se crea al entrar
+ * el primer miembro y desaparece al salir el último.
+ * Entrar y salir solo bloquean la entrada de esa sala en el mapa, así las
+ * salas no relacionadas nunca se esperan entre sí.
+ *
+ * @author sergi
+ */
+public class RoomRegistry {
+
+    private final ConcurrentHashMap<String, Room> rooms = new ConcurrentHashMap<>();
+    private final int historyCapacity;          // Tamaño del historial de cada sala
+
+    public RoomRegistry(int historyCapacity) {
+        this.historyCapacity = historyCapacity;
+    }
+
+    /**
+     * Mete a 'handler' en la sala 'name', creándola si no existe.
+     */
+    public Room join(String name, ClientHandler handler) {
+        return rooms.compute(fold(name), (key, room) -> {
+            if (room == null) {
+                room = new Room(name, historyCapacity);
+            }
+            room.getMembers().add(handler);
+            return room;
+        });
+    }
+
+    /**
+     * Saca a 'handler' de 'room' y la borra si se ha quedado vacía.
+     */
+    public void leave(Room room, ClientHandler handler) {
+        rooms.computeIfPresent(fold(room.getName()), (key, current) -> {
+            current.getMembers().remove(handler);
+            return current.getMembers().isEmpty() ? null : current;
+        });
+    }
+
+    /**
+     * Sala con ese nombre, o null si no existe.
+     */
+    public Room lookup(String name) {
+        return rooms.get(fold(name));
+    }
+
+    /**
+     * Copia de las salas abiertas (para /rooms).
+     */
+    public List<Room> snapshot() {
+        return new ArrayList<>(rooms.values());
+    }
+
+    public int size() {
+        return rooms.size();
+    }
+
+    private static String fold(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+}
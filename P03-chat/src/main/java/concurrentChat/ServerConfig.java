@@ -0,0 +1,507 @@
+package concurrentChat;
+
+import Handlers.OutboundQueue;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Opciones de arranque del servidor de chat.
+ * Se leen de la línea de comandos con el formato --clave=valor,
+ * por ejemplo: --engine=blocking --port=9090
+ *
+ * @author sergi
+ */
+public class ServerConfig {
+
+    /**
+     * Motores de red disponibles para atender a los clientes.
+     */
+    public enum Engine {
+        NIO,        // Selector + pocos hilos de eventos (por defecto)
+        BLOCKING,   // Un hilo del pool por cliente (motor original)
+        VIRTUAL     // Un hilo virtual por cliente, mismo modelo bloqueante
+    }
+
+    private static final int DEFAULT_PORT = 8080;
+    private static final int DEFAULT_OUTBOUND_CAPACITY = 1024;
+    private static final int DEFAULT_HISTORY_CAPACITY = 256;
+    private static final int DEFAULT_HISTORY_REPLAY = 20;
+    private static final String DEFAULT_LOG_DIRECTORY = "chat-log";
+    private static final int DEFAULT_LOG_SEGMENT_MB = 16;
+    private static final int DEFAULT_LOG_RETENTION = 8;
+    private static final int DEFAULT_LOG_FLUSH_MS = 10;
+    private static final int DEFAULT_LOG_QUEUE = 65536;
+    private static final int DEFAULT_METRICS_PORT = 9464;
+    private static final String DEFAULT_SERVER_LOG = "chat-server.log";
+    private static final int DEFAULT_SERVER_LOG_MB = 10;
+    private static final int DEFAULT_SERVER_LOG_FILES = 5;
+    private static final int DEFAULT_SERVER_LOG_QUEUE = 8192;
+    private static final int DEFAULT_RATE_MESSAGES = 20;
+    private static final int DEFAULT_RATE_BYTES = 64 * 1024;
+    private static final int DEFAULT_RATE_IP_MESSAGES = 100;
+    private static final int DEFAULT_RATE_IP_BYTES = 256 * 1024;
+    private static final int DEFAULT_RATE_BURST_SECONDS = 2;
+    private static final int DEFAULT_FLOOD_DISCONNECT = 100;
+    private static final int DEFAULT_FLOOD_BAN_AFTER = 3;
+    private static final int DEFAULT_FLOOD_BAN_SECONDS = 300;
+    private static final int DEFAULT_IDLE_TIMEOUT_SECONDS = 90;
+    private static final int DEFAULT_DRAIN_SECONDS = 5;
+    private static final int DEFAULT_WRITE_BATCH = 64;
+    private static final int DEFAULT_WRITE_DELAY_MICROS = 0;
+    private static final int DEFAULT_COMPRESS_LEVEL = 1;
+    private static final int DEFAULT_RESUME_GRACE_SECONDS = 0;
+    private static final int DEFAULT_RESUME_BUFFER = 256;
+    private static final int DEFAULT_PRESENCE_BATCH_MILLIS = 500;
+    private static final int DEFAULT_WHO_PAGE_SIZE = 50;
+    private static final int MAX_PRESENCE_BATCH_MILLIS = 10_000;
+    private static final int MAX_WRITE_DELAY_MICROS = 5000;
+    private static final String DEFAULT_CLUSTER_BIND = "127.0.0.1";
+    private static final int DEFAULT_CLUSTER_BATCH = 256;
+    private static final int DEFAULT_CLUSTER_RETAIN = 8192;
+    private static final int MAX_CLUSTER_RETAIN = 1 << 20;
+    private static final int DEFAULT_CLUSTER_TIMEOUT_MS = 500;
+    private static final int DEFAULT_CLUSTER_GRACE_MS = 5000;
+
+    private final Map<String, String> options;
+
+    private ServerConfig(Map<String, String> options) {
+        this.options = options;
+    }
+
+    /**
+     * Construye la configuración a partir de los argumentos de main().
+     * Lanza IllegalArgumentException si algún argumento no tiene el formato esperado.
+     */
+    public static ServerConfig fromArgs(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Argumento no reconocido: " + arg);
+            }
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                // Una bandera sin valor equivale a "true"
+                options.put(arg.substring(2).toLowerCase(Locale.ROOT), "true");
+            } else {
+                options.put(arg.substring(2, eq).toLowerCase(Locale.ROOT), arg.substring(eq + 1));
+            }
+        }
+        return new ServerConfig(options);
+    }
+
+    // --- Lectura genérica de opciones ---
+
+    public String get(String key, String defaultValue) {
+        return options.getOrDefault(key, defaultValue);
+    }
+
+    public int getInt(String key, int defaultValue) {
+        String value = options.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Valor inválido para --" + key + ": " + value);
+        }
+    }
+
+    public long getLong(String key, long defaultValue) {
+        String value = options.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Valor inválido para --" + key + ": " + value);
+        }
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        String value = options.get(key);
+        return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+
+    public <E extends Enum<E>> E getEnum(String key, Class<E> type, E defaultValue) {
+        String value = options.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Enum.valueOf(type, value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Valor inválido para --" + key + ": " + value);
+        }
+    }
+
+    // --- Opciones del servidor ---
+
+    public int port() {
+        return getInt("port", DEFAULT_PORT);
+    }
+
+    public Engine engine() {
+        return getEnum("engine", Engine.class, Engine.NIO);
+    }
+
+    /**
+     * Número de hilos de eventos del motor NIO (uno por núcleo por defecto).
+     */
+    public int workers() {
+        return Math.max(1, getInt("workers", Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Mensajes que puede acumular la cola de salida de cada cliente.
+     */
+    public int outboundCapacity() {
+        return Math.max(1, getInt("outbound-capacity", DEFAULT_OUTBOUND_CAPACITY));
+    }
+
+    /**
+     * Qué hacer cuando la cola de salida de un cliente se llena
+     * (--overflow=drop-oldest|drop-newest|disconnect).
+     */
+    public OutboundQueue.OverflowPolicy overflowPolicy() {
+        return getEnum("overflow", OutboundQueue.OverflowPolicy.class, OutboundQueue.OverflowPolicy.DISCONNECT);
+    }
+
+    /**
+     * Mensajes que guarda el historial global y el de cada sala.
+     */
+    public int historyCapacity() {
+        return Math.max(1, getInt("history", DEFAULT_HISTORY_CAPACITY));
+    }
+
+    /**
+     * Mensajes del historial que se reenvían al entrar (0 = ninguno).
+     */
+    public int historyReplay() {
+        return Math.max(0, getInt("history-replay", DEFAULT_HISTORY_REPLAY));
+    }
+
+    /**
+     * Directorio del registro persistente (--log-dir= lo desactiva).
+     */
+    public String logDirectory() {
+        return get("log-dir", DEFAULT_LOG_DIRECTORY).trim();
+    }
+
+    /**
+     * Tamaño de cada segmento del registro, en MB.
+     */
+    public int logSegmentMegabytes() {
+        return Math.max(1, getInt("log-segment-mb", DEFAULT_LOG_SEGMENT_MB));
+    }
+
+    /**
+     * Segmentos que se conservan; al abrir uno nuevo se borran los más antiguos.
+     */
+    public int logRetention() {
+        return Math.max(1, getInt("log-retention", DEFAULT_LOG_RETENTION));
+    }
+
+    /**
+     * Cada cuánto fuerza a disco el escritor del registro lo acumulado (group commit).
+     */
+    public int logFlushMillis() {
+        return Math.max(1, getInt("log-flush-ms", DEFAULT_LOG_FLUSH_MS));
+    }
+
+    /**
+     * Registros que pueden esperar al escritor del registro; con la cola
+     * llena, los nuevos se descartan.
+     */
+    public int logQueue() {
+        return Math.max(1, getInt("log-queue", DEFAULT_LOG_QUEUE));
+    }
+
+    /**
+     * Puerto local (127.0.0.1) de GET /metrics; 0 lo desactiva.
+     */
+    public int metricsPort() {
+        return Math.max(0, getInt("metrics-port", DEFAULT_METRICS_PORT));
+    }
+
+    /**
+     * Fichero del log del servidor (--server-log= lo manda a la consola).
+     */
+    public String logFile() {
+        return get("server-log", DEFAULT_SERVER_LOG).trim();
+    }
+
+    /**
+     * Nivel mínimo del log del servidor (--server-log-level=debug|info|warn|error|off).
+     */
+    public ChatLog.Level logLevel() {
+        return getEnum("server-log-level", ChatLog.Level.class, ChatLog.Level.INFO);
+    }
+
+    /**
+     * Tamaño a partir del cual rota el fichero de log, en MB.
+     */
+    public int logFileMegabytes() {
+        return Math.max(1, getInt("server-log-mb", DEFAULT_SERVER_LOG_MB));
+    }
+
+    /**
+     * Ficheros de log que se conservan al rotar (incluido el actual).
+     */
+    public int logFiles() {
+        return Math.max(1, getInt("server-log-files", DEFAULT_SERVER_LOG_FILES));
+    }
+
+    /**
+     * Líneas de log que pueden esperar al escritor; las que no caben se descartan.
+     */
+    public int logQueueCapacity() {
+        return Math.max(1, getInt("server-log-queue", DEFAULT_SERVER_LOG_QUEUE));
+    }
+
+    // --- Límites de ritmo (0 desactiva cada uno) ---
+
+    /**
+     * Líneas por segundo que puede enviar cada conexión.
+     */
+    public int rateMessages() {
+        return Math.max(0, getInt("rate-messages", DEFAULT_RATE_MESSAGES));
+    }
+
+    /**
+     * Bytes por segundo que puede enviar cada conexión.
+     */
+    public int rateBytes() {
+        return Math.max(0, getInt("rate-bytes", DEFAULT_RATE_BYTES));
+    }
+
+    /**
+     * Líneas por segundo entre todas las conexiones de una misma IP.
+     */
+    public int rateIpMessages() {
+        return Math.max(0, getInt("rate-ip-messages", DEFAULT_RATE_IP_MESSAGES));
+    }
+
+    /**
+     * Bytes por segundo entre todas las conexiones de una misma IP.
+     */
+    public int rateIpBytes() {
+        return Math.max(0, getInt("rate-ip-bytes", DEFAULT_RATE_IP_BYTES));
+    }
+
+    /**
+     * Segundos de ritmo que se pueden gastar de golpe (tamaño de cada cubo).
+     */
+    public int rateBurstSeconds() {
+        return Math.max(1, getInt("rate-burst-seconds", DEFAULT_RATE_BURST_SECONDS));
+    }
+
+    /**
+     * Líneas descartadas seguidas tras las que se desconecta al cliente.
+     */
+    public int floodDisconnect() {
+        return Math.max(1, getInt("flood-disconnect", DEFAULT_FLOOD_DISCONNECT));
+    }
+
+    /**
+     * Desconexiones por inundación de una IP tras las que se bloquea temporalmente.
+     */
+    public int floodBanAfter() {
+        return Math.max(1, getInt("flood-ban-after", DEFAULT_FLOOD_BAN_AFTER));
+    }
+
+    /**
+     * Duración del bloqueo temporal (y ventana en la que se cuentan las desconexiones).
+     */
+    public int floodBanSeconds() {
+        return Math.max(1, getInt("flood-ban-seconds", DEFAULT_FLOOD_BAN_SECONDS));
+    }
+
+    /**
+     * Segundos sin recibir nada (ni siquiera /ping) tras los que se cierra
+     * una conexión. 0 desactiva el control de inactividad.
+     */
+    public int idleTimeoutSeconds() {
+        return Math.max(0, getInt("idle-timeout", DEFAULT_IDLE_TIMEOUT_SECONDS));
+    }
+
+    /**
+     * Plazo máximo del apagado ordenado para volcar las colas de salida y
+     * esperar a los hilos, en segundos.
+     */
+    public int drainSeconds() {
+        return Math.max(0, getInt("drain-seconds", DEFAULT_DRAIN_SECONDS));
+    }
+
+    // --- Agrupación de escrituras ---
+
+    /**
+     * Mensajes de la cola de salida que se juntan como mucho en una sola
+     * escritura al socket (1 = una escritura por mensaje).
+     */
+    public int writeBatch() {
+        return Math.max(1, getInt("write-batch", DEFAULT_WRITE_BATCH));
+    }
+
+    /**
+     * Microsegundos que se espera a que lleguen más mensajes antes de escribir
+     * un lote incompleto (0 = se escribe lo que haya, sin esperar; máximo 5 ms).
+     */
+    public int writeDelayMicros() {
+        return Math.min(MAX_WRITE_DELAY_MICROS, Math.max(0, getInt("write-delay-us", DEFAULT_WRITE_DELAY_MICROS)));
+    }
+
+    // --- Compresión ---
+
+    /**
+     * Nivel de deflate para los clientes que piden /compress, de 1 (más
+     * rápido) a 9 (más compresión); 0 = el servidor no ofrece compresión.
+     */
+    public int compressLevel() {
+        return Math.min(9, Math.max(0, getInt("compress-level", DEFAULT_COMPRESS_LEVEL)));
+    }
+
+    // --- Reanudación de sesiones ---
+
+    /**
+     * Segundos que se guarda la sesión de un cliente que pierde la conexión,
+     * a la espera de que vuelva con "/resume" (0 = sin reanudación: se da
+     * de baja al momento, como antes). Solo con --overflow=disconnect: si la
+     * cola descarta líneas, el cliente pierde la cuenta de la numeración.
+     */
+    public int resumeGraceSeconds() {
+        if (overflowPolicy() != OutboundQueue.OverflowPolicy.DISCONNECT) {
+            return 0;
+        }
+        return Math.max(0, getInt("resume-grace", DEFAULT_RESUME_GRACE_SECONDS));
+    }
+
+    /**
+     * Líneas que se guardan por sesión para reenviar el hueco al reanudar.
+     * No pasa de --outbound-capacity: el hueco entero debe caber en la cola.
+     */
+    public int resumeBuffer() {
+        return Math.min(outboundCapacity(), Math.max(1, getInt("resume-buffer", DEFAULT_RESUME_BUFFER)));
+    }
+
+    // --- Presencia ---
+
+    /**
+     * Milisegundos que se juntan entradas, salidas y cambios de nombre antes
+     * de enviarlos en un lote a los suscritos a /presence (0 = uno a uno, al
+     * momento; máximo 10 s).
+     */
+    public int presenceBatchMillis() {
+        return Math.min(MAX_PRESENCE_BATCH_MILLIS, Math.max(0, getInt("presence-batch-ms", DEFAULT_PRESENCE_BATCH_MILLIS)));
+    }
+
+    /**
+     * Usuarios por página de /who.
+     */
+    public int whoPageSize() {
+        return Math.max(1, getInt("who-page-size", DEFAULT_WHO_PAGE_SIZE));
+    }
+
+    // --- Clúster ---
+
+    /**
+     * ID de este nodo en el clúster (1-255; 0 = servidor independiente).
+     * Va en los bits bajos de los IDs de usuario, así son únicos en todo el clúster.
+     */
+    public int nodeId() {
+        return getInt("node-id", 0);
+    }
+
+    /**
+     * Puerto en el que este nodo acepta los enlaces de los demás (0 = sin clúster).
+     */
+    public int clusterPort() {
+        return Math.max(0, getInt("cluster-port", 0));
+    }
+
+    /**
+     * Dirección en la que escucha el puerto del clúster (por defecto solo local).
+     */
+    public String clusterBind() {
+        return get("cluster-bind", DEFAULT_CLUSTER_BIND);
+    }
+
+    /**
+     * Los demás nodos, con el formato id@host:puerto separados por comas,
+     * por ejemplo --peers=2@127.0.0.1:9102,3@127.0.0.1:9103. Vacía si no hay
+     * clúster. Lanza IllegalArgumentException si la lista no es coherente.
+     */
+    public List<Cluster.Peer> peers() {
+        String value = get("peers", "").trim();
+        List<Cluster.Peer> peers = new ArrayList<>();
+        if (value.isEmpty()) {
+            return peers;
+        }
+        int self = nodeId();
+        if (self < 1 || self > Cluster.MAX_NODE_ID) {
+            throw new IllegalArgumentException("--peers necesita --node-id entre 1 y " + Cluster.MAX_NODE_ID);
+        }
+        if (clusterPort() == 0) {
+            throw new IllegalArgumentException("--peers necesita --cluster-port");
+        }
+        Set<Integer> seen = new HashSet<>();
+        seen.add(self);
+        for (String item : value.split(",")) {
+            String peer = item.trim();
+            int at = peer.indexOf('@');
+            int colon = peer.lastIndexOf(':');
+            if (at <= 0 || colon <= at + 1) {
+                throw new IllegalArgumentException("Nodo inválido en --peers (id@host:puerto): " + peer);
+            }
+            int id;
+            int port;
+            try {
+                id = Integer.parseInt(peer.substring(0, at));
+                port = Integer.parseInt(peer.substring(colon + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Nodo inválido en --peers (id@host:puerto): " + peer);
+            }
+            if (id < 1 || id > Cluster.MAX_NODE_ID || !seen.add(id)) {
+                throw new IllegalArgumentException("ID de nodo repetido o fuera de rango en --peers: " + peer);
+            }
+            peers.add(new Cluster.Peer(id, peer.substring(at + 1, colon), port));
+        }
+        return peers;
+    }
+
+    /**
+     * Registros que se juntan como mucho en un lote de un enlace entre nodos.
+     */
+    public int clusterBatch() {
+        return Math.max(1, getInt("cluster-batch", DEFAULT_CLUSTER_BATCH));
+    }
+
+    /**
+     * Registros enviados que cada enlace guarda para reenviarlos si se corta.
+     */
+    public int clusterRetain() {
+        return Math.min(MAX_CLUSTER_RETAIN, Math.max(64, getInt("cluster-retain", DEFAULT_CLUSTER_RETAIN)));
+    }
+
+    /**
+     * Milisegundos que se espera al nodo dueño de un nombre al reservarlo;
+     * si no responde, decide este nodo.
+     */
+    public int clusterTimeoutMillis() {
+        return Math.max(1, getInt("cluster-timeout-ms", DEFAULT_CLUSTER_TIMEOUT_MS));
+    }
+
+    /**
+     * Milisegundos que los nombres de un nodo siguen reservados tras caerse
+     * su enlace, para que un corte breve no los libere mientras se usan.
+     */
+    public int clusterGraceMillis() {
+        return Math.max(0, getInt("cluster-grace-ms", DEFAULT_CLUSTER_GRACE_MS));
+    }
+}
@@ -0,0 +1,127 @@
+package concurrentChat;
+
+import Handlers.BuiltinCommands;
+import Handlers.ClientHandler;
+import Handlers.CommandRegistry;
+import java.net.InetAddress;
+import java.util.Set;
+
+/**
+ * Estado compartido por todos los manejadores de clientes,
+ * independientemente del motor de red que los ejecute.
+ *
+ * @author sergi
+ */
+public class ServerContext {
+
+    private final ServerConfig config;
+    private final Set<ClientHandler> clients;  // Todos los clientes conectados
+    private final UserRegistry users;          // Nombre (sin mayúsculas) -> cliente
+    private final BlockList blockList;         // IPs y rangos bloqueados
+    private final CommandRegistry commands = new CommandRegistry(); // Comandos "/..." disponibles
+    private final RoomRegistry rooms;          // Salas abiertas
+    private final MessageHistory history;      // Últimos mensajes del chat global
+    private final MessageLog log;              // Registro persistente en disco
+    private final ServerMetrics metrics = new ServerMetrics();
+    private final FloodGuard floodGuard;       // Límites de ritmo y bloqueos temporales
+    private final TimingWheel timers = new TimingWheel("chat-timers"); // Plazos de inactividad
+    private final GracefulShutdown shutdown;   // Apagado ordenado (drenaje)
+    private final Cluster cluster;             // Enlaces con otros nodos (inactivo sin --peers)
+    private final SessionRegistry sessions = new SessionRegistry(); // Testigos para reanudar sesiones
+    private final Presence presence;           // Foto de los usuarios conectados (/who, /presence)
+
+    public ServerContext(ServerConfig config, Set<ClientHandler> clients, UserRegistry users, BlockList blockList) {
+        this(config, clients, users, blockList, MessageLog.disabled());
+    }
+
+    public ServerContext(ServerConfig config, Set<ClientHandler> clients, UserRegistry users, BlockList blockList,
+                         MessageLog log) {
+        this.config = config;
+        this.log = log;
+        this.clients = clients;
+        this.users = users;
+        this.blockList = blockList;
+        this.rooms = new RoomRegistry(config.historyCapacity());
+        this.history = new MessageHistory(config.historyCapacity());
+        this.floodGuard = new FloodGuard(config, metrics, blockList);
+        this.cluster = new Cluster(config, metrics);
+        this.shutdown = new GracefulShutdown(config, clients, log, cluster);
+        this.presence = new Presence(timers, config.presenceBatchMillis(), metrics);
+        BuiltinCommands.register(commands);
+    }
+
+    public ServerConfig getConfig() {
+        return config;
+    }
+
+    public Set<ClientHandler> getClients() {
+        return clients;
+    }
+
+    public UserRegistry getUserRegistry() {
+        return users;
+    }
+
+    public BlockList getBlockList() {
+        return blockList;
+    }
+
+    public FloodGuard getFloodGuard() {
+        return floodGuard;
+    }
+
+    /**
+     * true si hay que rechazar una conexión desde 'address' (bloqueo de un
+     * administrador o bloqueo temporal por inundación). No reserva memoria
+     * para IPv4 y cuesta lo mismo con uno que con miles de bloqueos.
+     */
+    public boolean isBlocked(InetAddress address) {
+        return blockList.isBlocked(address);
+    }
+
+    /**
+     * Rueda compartida para los plazos de inactividad de las conexiones.
+     */
+    public TimingWheel getTimers() {
+        return timers;
+    }
+
+    public Cluster getCluster() {
+        return cluster;
+    }
+
+    public SessionRegistry getSessions() {
+        return sessions;
+    }
+
+    public Presence getPresence() {
+        return presence;
+    }
+
+    public GracefulShutdown getShutdown() {
+        return shutdown;
+    }
+
+    public RoomRegistry getRooms() {
+        return rooms;
+    }
+
+    public MessageHistory getHistory() {
+        return history;
+    }
+
+    public MessageLog getLog() {
+        return log;
+    }
+
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Tabla de comandos; los módulos del servidor registran aquí los suyos.
+     */
+    public CommandRegistry getCommands() {
+        return commands;
+    }
+}
@@ -0,0 +1,337 @@
+package concurrentChat;
+
+import Handlers.ClientHandler;
+import Handlers.CommandRegistry;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Métricas del servidor. Los contadores son LongAdder (una celda por hilo
+ * en caso de contención), así registrar en los caminos calientes no hace
+ * que los hilos se esperen entre sí. Las llamadas a cada comando y los
+ * mensajes que encola se cuentan en su propia entrada de CommandRegistry.
+ *
+ * toPrometheus() genera el formato de texto de Prometheus (ver MetricsEndpoint).
+ *
+ * @author sergi
+ */
+public class ServerMetrics {
+
+    // --- Conexiones ---
+    private final LongAdder connectionsAccepted = new LongAdder();
+    private final LongAdder connectionsRejected = new LongAdder();   // IP en la lista de bloqueo
+    private final LongAdder idleTimeouts = new LongAdder();
+
+    // --- Reanudación de sesiones ---
+    private final LongAdder sessionsDetached = new LongAdder();     // A la espera de reanudar (sube y baja)
+    private final LongAdder sessionsResumed = new LongAdder();
+    private final LongAdder resumeFailures = new LongAdder();       // Testigo desconocido o hueco ya perdido
+    private final LongAdder sessionsExpired = new LongAdder();      // Pasó el plazo sin volver
+
+    // --- Presencia ---
+    private final LongAdder presenceBatches = new LongAdder();      // Un lote por suscrito
+    private final LongAdder presenceEvents = new LongAdder();       // Eventos enviados en esos lotes
+
+    // --- Mensajes ---
+    private final LongAdder globalMessagesIn = new LongAdder();
+    private final LongAdder roomMessagesIn = new LongAdder();
+    private final LongAdder unknownCommandsIn = new LongAdder();
+    private final LongAdder messagesOut = new LongAdder();
+    private final LongAdder globalMessagesOut = new LongAdder();   // Entregas de los mensajes globales
+    private final LongAdder roomMessagesOut = new LongAdder();     // Entregas de los mensajes de sala
+    private final ThreadLocal<LongAdder> outboundScope = new ThreadLocal<>(); // Comando en curso en este hilo
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder socketWrites = new LongAdder();         // Llamadas de escritura al socket
+
+    // --- Compresión ---
+    private final LongAdder compressionSessions = new LongAdder();
+    private final LongAdder compressionBytesIn = new LongAdder();   // Antes de comprimir
+    private final LongAdder compressionBytesOut = new LongAdder();  // Ya comprimidos
+
+    // --- Límites de ritmo ---
+    private final LongAdder linesThrottled = new LongAdder();
+    private final LongAdder floodDisconnects = new LongAdder();
+    private final LongAdder temporaryBans = new LongAdder();
+
+    // --- Clúster ---
+    private final LongAdder clusterRecordsOut = new LongAdder();
+    private final LongAdder clusterBatchesOut = new LongAdder();
+    private final LongAdder clusterRecordsIn = new LongAdder();
+    private final LongAdder clusterDuplicates = new LongAdder();   // Reenvíos ya recibidos
+    private final LongAdder clusterRecordsLost = new LongAdder();  // No cupieron con el enlace caído
+
+    // --- Difusiones ---
+    private final LongAdder broadcastRecipients = new LongAdder();
+    private final LatencyHistogram broadcastNanos = new LatencyHistogram();
+
+    public void connectionAccepted() {
+        connectionsAccepted.increment();
+    }
+
+    public void connectionRejected() {
+        connectionsRejected.increment();
+    }
+
+    public void idleTimeout() {
+        idleTimeouts.increment();
+    }
+
+    public void sessionDetached() {
+        sessionsDetached.increment();
+    }
+
+    /**
+     * Una sesión reanudada; 'wasDetached' si ya se había notado que perdió la conexión.
+     */
+    public void sessionResumed(boolean wasDetached) {
+        if (wasDetached) {
+            sessionsDetached.decrement();
+        }
+        sessionsResumed.increment();
+    }
+
+    /**
+     * Una sesión a la espera que termina sin reanudarse (plazo vencido,
+     * apagado o reanudación imposible).
+     */
+    public void sessionExpired() {
+        sessionsDetached.decrement();
+        sessionsExpired.increment();
+    }
+
+    public void resumeFailed() {
+        resumeFailures.increment();
+    }
+
+    /**
+     * Un lote de 'events' eventos de presencia enviado a 'subscribers' clientes.
+     */
+    public void presenceBatch(int events, int subscribers) {
+        presenceBatches.add(subscribers);
+        presenceEvents.add((long) events * subscribers);
+    }
+
+    public void globalMessageIn() {
+        globalMessagesIn.increment();
+    }
+
+    public void roomMessageIn() {
+        roomMessagesIn.increment();
+    }
+
+    public void unknownCommandIn() {
+        unknownCommandsIn.increment();
+    }
+
+    public void messagesOut(int count) {
+        messagesOut.add(count);
+        LongAdder scope = outboundScope.get();
+        if (scope != null) {
+            scope.add(count);
+        }
+    }
+
+    /**
+     * Desde aquí hasta endOutbound(), lo que encole este hilo se carga
+     * también a 'counter' (el comando que se está ejecutando). Devuelve el
+     * contador anterior, para restaurarlo.
+     */
+    public LongAdder beginOutbound(LongAdder counter) {
+        LongAdder previous = outboundScope.get();
+        outboundScope.set(counter);
+        return previous;
+    }
+
+    public void endOutbound(LongAdder previous) {
+        outboundScope.set(previous);
+    }
+
+    public void globalMessagesOut(int recipients) {
+        globalMessagesOut.add(recipients);
+    }
+
+    public void roomMessagesOut(int recipients) {
+        roomMessagesOut.add(recipients);
+    }
+
+    public void bytesWritten(long bytes) {
+        bytesWritten.add(bytes);
+    }
+
+    public void socketWrite() {
+        socketWrites.increment();
+    }
+
+    public long getSocketWrites() {
+        return socketWrites.sum();
+    }
+
+    public void compressionStarted() {
+        compressionSessions.increment();
+    }
+
+    /**
+     * Un lote comprimido: 'raw' bytes de mensajes que salieron como 'compressed'.
+     */
+    public void compressed(long raw, long compressed) {
+        compressionBytesIn.add(raw);
+        compressionBytesOut.add(compressed);
+    }
+
+    public void lineThrottled() {
+        linesThrottled.increment();
+    }
+
+    public void floodDisconnect() {
+        floodDisconnects.increment();
+    }
+
+    public void temporaryBan() {
+        temporaryBans.increment();
+    }
+
+    /**
+     * Un lote de 'records' registros escrito en un enlace entre nodos.
+     */
+    public void clusterBatchOut(int records) {
+        clusterBatchesOut.increment();
+        clusterRecordsOut.add(records);
+    }
+
+    public void clusterRecordIn() {
+        clusterRecordsIn.increment();
+    }
+
+    public void clusterDuplicate() {
+        clusterDuplicates.increment();
+    }
+
+    public void clusterRecordLost() {
+        clusterRecordsLost.increment();
+    }
+
+    public void clusterRecordsLost(long records) {
+        clusterRecordsLost.add(records);
+    }
+
+    /**
+     * Una difusión a 'recipients' clientes que tardó 'nanos' en repartirse.
+     */
+    public void broadcast(int recipients, long nanos) {
+        broadcastRecipients.add(recipients);
+        broadcastNanos.record(nanos);
+    }
+
+    // --- EXPOSICIÓN ---
+
+    /**
+     * Todas las métricas en formato de texto de Prometheus (versión 0.0.4).
+     */
+    public String toPrometheus(ServerContext context) {
+        StringBuilder out = new StringBuilder(4096);
+
+        counter(out, "chat_connections_accepted_total", "Conexiones aceptadas.", connectionsAccepted.sum());
+        counter(out, "chat_connections_rejected_total", "Conexiones rechazadas por la lista de bloqueo.", connectionsRejected.sum());
+        counter(out, "chat_idle_timeouts_total", "Conexiones cerradas por inactividad.", idleTimeouts.sum());
+        gauge(out, "chat_sessions_detached", "Sesiones sin conexión a la espera de reanudarse.", sessionsDetached.sum());
+        counter(out, "chat_sessions_resumed_total", "Sesiones reanudadas con /resume.", sessionsResumed.sum());
+        counter(out, "chat_sessions_expired_total", "Sesiones a la espera que terminaron sin reanudarse.", sessionsExpired.sum());
+        counter(out, "chat_resume_failures_total", "Intentos de /resume rechazados.", resumeFailures.sum());
+        gauge(out, "chat_clients", "Clientes con nombre conectados.", context.getClients().size());
+        gauge(out, "chat_presence_version", "Versión de la foto de usuarios conectados (/who).", context.getPresence().snapshot().getVersion());
+        counter(out, "chat_presence_batches_total", "Lotes de presencia enviados a los suscritos a /presence.", presenceBatches.sum());
+        counter(out, "chat_presence_events_total", "Entradas, salidas y cambios de nombre enviados en esos lotes.", presenceEvents.sum());
+
+        header(out, "chat_messages_in_total", "counter", "Líneas recibidas por tipo.");
+        sample(out, "chat_messages_in_total{type=\"global\"}", globalMessagesIn.sum());
+        sample(out, "chat_messages_in_total{type=\"room\"}", roomMessagesIn.sum());
+        sample(out, "chat_messages_in_total{type=\"unknown_command\"}", unknownCommandsIn.sum());
+        header(out, "chat_commands_total", "counter", "Comandos ejecutados por nombre.");
+        for (CommandRegistry.Entry command : context.getCommands().commands()) {
+            sample(out, "chat_commands_total{command=\"" + command.getName() + "\"}", command.getCalls());
+        }
+        header(out, "chat_messages_out_by_type_total", "counter", "Mensajes encolados hacia los clientes por tipo de línea recibida.");
+        sample(out, "chat_messages_out_by_type_total{type=\"global\"}", globalMessagesOut.sum());
+        sample(out, "chat_messages_out_by_type_total{type=\"room\"}", roomMessagesOut.sum());
+        header(out, "chat_command_messages_out_total", "counter", "Mensajes encolados hacia los clientes al ejecutar cada comando.");
+        for (CommandRegistry.Entry command : context.getCommands().commands()) {
+            sample(out, "chat_command_messages_out_total{command=\"" + command.getName() + "\"}", command.getMessagesOut());
+        }
+
+        counter(out, "chat_lines_throttled_total", "Líneas descartadas por el límite de ritmo.", linesThrottled.sum());
+        counter(out, "chat_flood_disconnects_total", "Clientes desconectados por inundación.", floodDisconnects.sum());
+        counter(out, "chat_temporary_bans_total", "IPs bloqueadas temporalmente por inundación.", temporaryBans.sum());
+
+        counter(out, "chat_messages_out_total", "Mensajes encolados hacia los clientes.", messagesOut.sum());
+        counter(out, "chat_bytes_written_total", "Bytes escritos en los sockets.", bytesWritten.sum());
+        counter(out, "chat_socket_writes_total", "Escrituras al socket (cada una lleva un lote de mensajes).", socketWrites.sum());
+        counter(out, "chat_compression_sessions_total", "Conexiones que han negociado la compresión.", compressionSessions.sum());
+        counter(out, "chat_compression_input_bytes_total", "Bytes de mensajes a conexiones comprimidas, antes de comprimir.", compressionBytesIn.sum());
+        counter(out, "chat_compression_output_bytes_total", "Bytes comprimidos escritos a esas conexiones.", compressionBytesOut.sum());
+        counter(out, "chat_broadcast_recipients_total", "Destinatarios de todas las difusiones.", broadcastRecipients.sum());
+
+        header(out, "chat_broadcast_duration_seconds", "summary", "Tiempo en repartir una difusión entre sus destinatarios.");
+        for (double quantile : new double[] {0.5, 0.9, 0.99, 0.999}) {
+            sample(out, "chat_broadcast_duration_seconds{quantile=\"" + quantile + "\"}",
+                    seconds(broadcastNanos.percentile(quantile * 100)));
+        }
+        sample(out, "chat_broadcast_duration_seconds_sum", seconds(broadcastNanos.mean() * broadcastNanos.count()));
+        sample(out, "chat_broadcast_duration_seconds_count", broadcastNanos.count());
+
+        // Colas de salida: se calculan al leer, recorriendo los clientes conectados
+        long depthSum = 0;
+        long depthMax = 0;
+        long dropped = 0;
+        for (ClientHandler client : context.getClients()) {
+            int depth = client.getQueueDepth();
+            depthSum += depth;
+            depthMax = Math.max(depthMax, depth);
+            dropped += client.getDroppedMessages();
+        }
+        header(out, "chat_outbound_queue_depth", "gauge", "Mensajes pendientes en las colas de salida.");
+        sample(out, "chat_outbound_queue_depth{stat=\"sum\"}", depthSum);
+        sample(out, "chat_outbound_queue_depth{stat=\"max\"}", depthMax);
+        gauge(out, "chat_outbound_dropped", "Mensajes descartados a los clientes conectados.", dropped);
+
+        gauge(out, "chat_rooms", "Salas abiertas.", context.getRooms().size());
+        counter(out, "chat_log_dropped_total", "Registros descartados por ir el escritor del registro --log-queue por detrás.", context.getLog().dropped());
+
+        Cluster cluster = context.getCluster();
+        if (cluster.isEnabled()) {
+            gauge(out, "chat_cluster_links_connected", "Enlaces de salida conectados a otros nodos.", cluster.connectedLinks());
+            counter(out, "chat_cluster_records_out_total", "Registros enviados a otros nodos.", clusterRecordsOut.sum());
+            counter(out, "chat_cluster_batches_out_total", "Lotes (escrituras) enviados a otros nodos.", clusterBatchesOut.sum());
+            counter(out, "chat_cluster_records_in_total", "Registros recibidos de otros nodos.", clusterRecordsIn.sum());
+            counter(out, "chat_cluster_duplicates_total", "Registros repetidos descartados (reenvíos tras reconectar).", clusterDuplicates.sum());
+            counter(out, "chat_cluster_records_lost_total", "Registros perdidos por no caber mientras un enlace estaba caído.", clusterRecordsLost.sum());
+        }
+        return out.toString();
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        header(out, name, "counter", help);
+        sample(out, name, value);
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, long value) {
+        header(out, name, "gauge", help);
+        sample(out, name, value);
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String series, long value) {
+        out.append(series).append(' ').append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String series, double value) {
+        out.append(series).append(' ').append(String.format(Locale.ROOT, "%.9f", value)).append('\n');
+    }
+
+    private static double seconds(double nanos) {
+        return nanos / 1e9;
+    }
+}
@@ -18,9 +18,8 @@ public class Servidor {
 
     public static void main(String[] args) {
 
-        try {
-            // Inicia el servidor en el puerto especificado.
-            ServerSocket server = new ServerSocket(PORT);
+        // Inicia el servidor en el puerto especificado.
+        try (ServerSocket server = new ServerSocket(PORT)) {
             System.err.println("Server active in localhost:" + PORT);
 
             // Espera y acepta una ÚNICA conexión de cliente.
@@ -32,14 +31,19 @@ public class Servidor {
             WriteHandler writer = new WriteHandler(socket);
             ReadHandler reader = new ReadHandler(socket);
 
-            // Crea hilos separados para leer y escribir.
+            // Crea hilos separados para leer y escribir. El de escritura es
+            // daemon: espera al teclado y no debe retener el proceso.
             Thread writeThread = new Thread(writer);
+            writeThread.setDaemon(true);
             Thread readThread = new Thread(reader);
 
-            // Inicia ambos hilos.
+            // Inicia ambos hilos y espera a que se cierre la conexión.
             writeThread.start();
             readThread.start();
+            readThread.join();
 
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (IOException e) {
             // Maneja errores si el servidor no puede iniciarse.
             System.err.println("Error starting server: " + e.getMessage());
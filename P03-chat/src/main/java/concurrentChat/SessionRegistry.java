@@ -0,0 +1,55 @@
+package concurrentChat;
+
+import Handlers.ClientHandler;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Testigos de sesión (tokens) para reanudar tras una desconexión.
+ * Cada login recibe uno aleatorio de 128 bits; quien lo presenta con
+ * "/resume" recupera la sesión, así que no se puede adivinar. Solo vale en
+ * el nodo que lo emitió.
+ *
+ * @author sergi
+ */
+public class SessionRegistry {
+
+    private static final int TOKEN_BYTES = 16;
+
+    private final SecureRandom random = new SecureRandom();
+    private final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+    private final ConcurrentHashMap<String, ClientHandler> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * Emite un testigo nuevo para 'handler'.
+     */
+    public String issue(ClientHandler handler) {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        String token = encoder.encodeToString(bytes);
+        sessions.put(token, handler);
+        return token;
+    }
+
+    /**
+     * Sesión de ese testigo, o null si no existe o ya terminó.
+     */
+    public ClientHandler lookup(String token) {
+        return sessions.get(token);
+    }
+
+    /**
+     * Anula el testigo, solo si sigue siendo de 'handler'.
+     */
+    public void remove(String token, ClientHandler handler) {
+        sessions.remove(token, handler);
+    }
+
+    /**
+     * Sesiones con testigo vigente (conectadas o a la espera de reanudar).
+     */
+    public int size() {
+        return sessions.size();
+    }
+}
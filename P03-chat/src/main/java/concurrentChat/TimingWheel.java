@@ -0,0 +1,173 @@
+package concurrentChat;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Temporizador de rueda con hash (hashed timing wheel) para los plazos de
+ * inactividad de todas las conexiones, atendido por un único hilo.
+ *
+ * La rueda tiene WHEEL_SIZE casillas de TICK_MILLIS cada una; un plazo se
+ * guarda en la casilla de su tic. Renovar un plazo (touch) solo escribe un
+ * volatile: el nodo sigue en su casilla antigua y, cuando el hilo de la rueda
+ * pasa por ella y ve que el plazo se ha movido, lo recoloca. Así cada línea
+ * recibida cuesta O(1) sin candados, sin memoria nueva y sin un
+ * ScheduledFuture por cliente.
+ *
+ * @author sergi
+ */
+public class TimingWheel {
+
+    private static final long TICK_MILLIS = 100;
+    private static final int WHEEL_SIZE = 512;          // Potencia de 2: ~51 s por vuelta
+
+    /**
+     * Un plazo programado. Lo renuevan los hilos de la conexión; el resto de
+     * campos (lista de su casilla) solo los toca el hilo de la rueda.
+     */
+    public static final class Timeout {
+        private final Runnable task;
+        private final long delayNanos;
+        private volatile long deadline;         // nanoTime
+        private volatile boolean cancelled = false;
+        private Timeout prev;
+        private Timeout next;
+        private int bucket = -1;                // -1 = aún no está en la rueda
+
+        private Timeout(Runnable task, long delayNanos) {
+            this.task = task;
+            this.delayNanos = delayNanos;
+            this.deadline = System.nanoTime() + delayNanos;
+        }
+
+        /**
+         * Aplaza el vencimiento hasta dentro de otro intervalo completo.
+         */
+        public void touch() {
+            deadline = System.nanoTime() + delayNanos;
+        }
+
+        /**
+         * Anula el plazo; el nodo se retira la próxima vez que pase la rueda.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    private final long tickNanos = TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS);
+    private final Timeout[] buckets = new Timeout[WHEEL_SIZE];
+    private final ConcurrentLinkedQueue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final String threadName;
+    private Thread worker;
+
+    // --- Estado del hilo de la rueda ---
+    private long start;
+    private long tick = 0;
+
+    public TimingWheel(String threadName) {
+        this.threadName = threadName;
+    }
+
+    /**
+     * Programa 'task' para dentro de 'delay'. La tarea se ejecuta en el hilo
+     * de la rueda, así que debe ser corta. El hilo arranca con el primer plazo.
+     */
+    public Timeout schedule(long delay, TimeUnit unit, Runnable task) {
+        Timeout timeout = new Timeout(task, unit.toNanos(delay));
+        added.add(timeout);
+        startIfNeeded();
+        return timeout;
+    }
+
+    private synchronized void startIfNeeded() {
+        if (worker != null) {
+            return;
+        }
+        start = System.nanoTime();
+        worker = new Thread(this::run, threadName);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    // --- HILO DE LA RUEDA ---
+
+    private void run() {
+        while (true) {
+            // Espera al final del tic actual
+            long tickEnd = start + (tick + 1) * tickNanos;
+            long wait;
+            while ((wait = tickEnd - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, wait);
+            }
+
+            Timeout timeout;
+            while ((timeout = added.poll()) != null) {
+                place(timeout);
+            }
+            expire((int) (tick & (WHEEL_SIZE - 1)), tickEnd);
+            tick++;
+        }
+    }
+
+    /**
+     * Recorre una casilla: ejecuta lo vencido, quita lo anulado y
+     * recoloca lo que se ha renovado desde que se guardó.
+     */
+    private void expire(int index, long now) {
+        Timeout timeout = buckets[index];
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.cancelled) {
+                remove(timeout);
+            } else if (timeout.deadline - now <= 0) {
+                remove(timeout);
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException ex) {
+                    System.getLogger(TimingWheel.class.getName()).log(System.Logger.Level.ERROR, "Error en tarea temporizada", ex);
+                }
+            } else {
+                place(timeout); // Renovado o a más de una vuelta: se queda o cambia de casilla
+            }
+            timeout = next;
+        }
+    }
+
+    private void place(Timeout timeout) {
+        if (timeout.cancelled) {
+            remove(timeout);
+            return;
+        }
+        long ticks = Math.max(tick, (timeout.deadline - start) / tickNanos);
+        int index = (int) (ticks & (WHEEL_SIZE - 1));
+        if (timeout.bucket == index) {
+            return;
+        }
+        remove(timeout);
+        timeout.bucket = index;
+        timeout.next = buckets[index];
+        if (timeout.next != null) {
+            timeout.next.prev = timeout;
+        }
+        buckets[index] = timeout;
+    }
+
+    private void remove(Timeout timeout) {
+        if (timeout.bucket < 0) {
+            return;
+        }
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            buckets[timeout.bucket] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.bucket = -1;
+    }
+}
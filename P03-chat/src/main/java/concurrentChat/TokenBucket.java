@@ -0,0 +1,56 @@
+package concurrentChat;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cubo de fichas sin candados ni hilo de recarga.
+ * En lugar de guardar las fichas que quedan y rellenarlas con un temporizador,
+ * guarda un único instante: cuándo estaría el cubo lleno otra vez ("tiempo
+ * teórico de llegada", GCRA). Consumir n fichas lo adelanta n * intervalo y se
+ * rechaza si eso lo deja más de 'burst' fichas por delante de ahora.
+ * Todo el estado es un AtomicLong, así que un cubo compartido (por IP) se
+ * actualiza con un compareAndSet.
+ *
+ * @author sergi
+ */
+public final class TokenBucket {
+
+    private final long nanosPerToken;
+    private final long burstNanos;
+    private final AtomicLong fullAt;            // Instante (nanoTime) en que el cubo vuelve a estar lleno
+
+    /**
+     * @param tokensPerSecond ritmo sostenido permitido
+     * @param burst           fichas que se pueden gastar de golpe
+     */
+    public TokenBucket(long tokensPerSecond, long burst) {
+        this.nanosPerToken = Math.max(1, 1_000_000_000L / Math.max(1, tokensPerSecond));
+        this.burstNanos = Math.max(1, burst) * nanosPerToken;
+        this.fullAt = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Intenta gastar 'tokens' fichas en el instante 'now' (System.nanoTime()).
+     */
+    public boolean tryAcquire(long tokens, long now) {
+        long cost = tokens * nanosPerToken;
+        while (true) {
+            long current = fullAt.get();
+            long next = Math.max(current, now) + cost;
+            if (next - now > burstNanos) {
+                return false;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Devuelve 'tokens' fichas gastadas con tryAcquire() (cuando otro cubo
+     * rechaza la misma línea y no debe costar nada).
+     */
+    public void refund(long tokens) {
+        fullAt.addAndGet(-tokens * nanosPerToken);
+    }
+}
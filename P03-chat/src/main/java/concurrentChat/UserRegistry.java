@@ -0,0 +1,84 @@
+package concurrentChat;
+
+import Handlers.ClientHandler;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Índice de nombres de usuario conectados (sin distinguir mayúsculas).
+ * Sustituye a recorrer la lista de clientes: buscar un nombre es O(1) y
+ * reservar un nombre es atómico, así dos clientes no pueden quedarse con el mismo.
+ * También reparte los IDs numéricos de sesión, que no cambian con /changename.
+ * En un clúster el ID lleva el nodo en sus NODE_BITS bits bajos, así dos
+ * nodos nunca dan el mismo. Quedan 2^23 IDs por arranque: no se reutilizan
+ * (las listas de ignorados y la presencia van por ID), así que al agotarse
+ * no se admiten más sesiones hasta reiniciar.
+ *
+ * @author sergi
+ */
+public class UserRegistry {
+
+    public static final int NODE_BITS = 8;
+
+    private static final int MAX_SEQUENCE = Integer.MAX_VALUE >>> NODE_BITS;   // El ID sigue siendo un int positivo
+
+    private final ConcurrentHashMap<String, ClientHandler> names = new ConcurrentHashMap<>();
+    private final AtomicInteger lastId = new AtomicInteger();   // 0 = sin ID (Sistema, historial recuperado)
+    private final int nodeId;
+
+    public UserRegistry() {
+        this(0);
+    }
+
+    public UserRegistry(int nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    /**
+     * Nuevo ID de usuario, único mientras el servidor siga en marcha
+     * (y en todo el clúster, si cada nodo tiene su --node-id). Devuelve 0
+     * si ya se han repartido todos.
+     */
+    public int nextUserId() {
+        // Se queda en MAX_SEQUENCE + 1: pasado el límite el contador no da la vuelta
+        int sequence = lastId.updateAndGet(last -> Math.min(last + 1, MAX_SEQUENCE + 1));
+        if (sequence > MAX_SEQUENCE) {
+            return 0;
+        }
+        return (sequence << NODE_BITS) | nodeId;
+    }
+
+    /**
+     * Reserva 'name' para 'handler'. Devuelve false si ya lo usa otro cliente
+     * (true si ya era suyo, p. ej. un /changename que solo cambia mayúsculas).
+     * Para cambiar de nombre se reserva el nuevo y, cuando ya está anunciado,
+     * se libera el anterior con unregister(): así nadie más lo toma antes.
+     */
+    public boolean register(String name, ClientHandler handler) {
+        ClientHandler owner = names.putIfAbsent(fold(name), handler);
+        return owner == null || owner == handler;
+    }
+
+    /**
+     * Libera el nombre, solo si sigue perteneciendo a 'handler'.
+     */
+    public void unregister(String name, ClientHandler handler) {
+        names.remove(fold(name), handler);
+    }
+
+    /**
+     * Cliente conectado con ese nombre, o null si no hay ninguno.
+     */
+    public ClientHandler lookup(String name) {
+        return names.get(fold(name));
+    }
+
+    public int size() {
+        return names.size();
+    }
+
+    private static String fold(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+}